@@ -8,6 +8,7 @@ plugins {
   id("org.jetbrains.kotlin.jvm") version "1.9.0"
   id("org.jetbrains.intellij") version "1.16.0"
   id("org.jetbrains.changelog") version "2.0.0"
+  id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.gitee"
@@ -28,6 +29,27 @@ configurations {
   }
 }
 
+dependencies {
+  testImplementation("junit:junit:4.13.2")
+}
+
+// benchmarks see the same IDE and plugin classes as the main source set
+sourceSets {
+  named("jmh") {
+    compileClasspath += sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().compileClasspath
+  }
+}
+
+jmh {
+  jmhVersion.set("1.37")
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  profilers.add("gc")
+  resultFormat.set("JSON")
+}
+
 intellij {
   version.set(properties("ideaVersion"))
 
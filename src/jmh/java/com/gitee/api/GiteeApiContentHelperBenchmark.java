@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api;
+
+import com.gitee.api.data.*;
+import kotlin.Unit;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures deserialization of API pages through {@link GiteeApiContentHelper}.
+ * <p>
+ * Payloads in {@code src/jmh/resources/payloads} mirror Gitee v5 responses, including the fields the plugin ignores.
+ * Run with {@code ./gradlew jmh}, allocation rate is reported by the {@code gc} profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GiteeApiContentHelperBenchmark {
+  private static final Map<String, Class<?>> PAYLOAD_CLASSES = Map.of(
+    "repos", GiteeRepo.class,
+    "issues", GiteeIssue.class,
+    "searched-issues", GiteeSearchedIssue.class,
+    "pulls", GiteePullRequest.class,
+    "issue-comments", GiteeIssueComment.class
+  );
+
+  @Param({"repos", "issues", "searched-issues", "pulls", "issue-comments"})
+  public String payload;
+
+  private String json;
+  private Class<?> itemClass;
+
+  @Setup
+  public void setUp() throws IOException {
+    json = loadPayload(payload);
+    itemClass = Objects.requireNonNull(PAYLOAD_CLASSES.get(payload), payload);
+  }
+
+  @Benchmark
+  public List<?> readJsonList() {
+    return GiteeApiContentHelper.readJsonList(new StringReader(json), itemClass);
+  }
+
+  @Benchmark
+  public void readJsonArray(Blackhole blackhole) {
+    GiteeApiContentHelper.readJsonArray(new StringReader(json), itemClass, item -> {
+      blackhole.consume(item);
+      return Unit.INSTANCE;
+    });
+  }
+
+  @NotNull
+  private static String loadPayload(@NotNull String name) throws IOException {
+    try (InputStream stream = GiteeApiContentHelperBenchmark.class.getResourceAsStream("/payloads/" + name + ".json")) {
+      if (stream == null) throw new IOException("Payload not found: " + name);
+      return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -15,11 +15,11 @@
  */
 package com.gitee.actions;
 
+import com.gitee.api.GEApiRequestExecutorRegistry;
 import com.gitee.api.GiteeApiRequestExecutor;
 import com.gitee.api.GiteeApiRequests;
 import com.gitee.api.GiteeServerPath;
 import com.gitee.api.data.request.GiteeGistRequest.FileContent;
-import com.gitee.authentication.GECredentials;
 import com.gitee.authentication.accounts.GiteeAccount;
 import com.gitee.i18n.GiteeBundle;
 import com.gitee.icons.GiteeIcons;
@@ -146,10 +146,8 @@ public class GiteeCreateGistAction extends DumbAwareAction {
 		new Task.Backgroundable(project, GiteeBundle.message("create.gist.process")) {
 			@Override
 			public void run(@NotNull ProgressIndicator indicator) {
-				GECredentials credentials = GECompatibilityUtil.getOrRequestCredentials(account, project);
-				if (credentials == null) return;
-
-				GiteeApiRequestExecutor requestExecutor = GiteeApiRequestExecutor.Factory.getInstance().create(credentials);
+				GiteeApiRequestExecutor requestExecutor = GEApiRequestExecutorRegistry.getInstance().getOrRequestExecutor(account, project);
+				if (requestExecutor == null) return;
 
 				List<FileContent> contents = collectContents(project, editor, file, files);
 				if (contents.isEmpty()) return;
@@ -1,13 +1,13 @@
 // Copyright 2000-2020 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package com.gitee.actions;
 
+import com.gitee.api.GEApiRequestExecutorRegistry;
 import com.gitee.api.GERepositoryPath;
 import com.gitee.api.GiteeApiRequestExecutor;
 import com.gitee.api.GiteeApiRequests;
 import com.gitee.api.GiteeServerPath;
 import com.gitee.api.data.GiteeRepo;
 import com.gitee.api.data.GiteeRepoDetailed;
-import com.gitee.authentication.GECredentials;
 import com.gitee.authentication.accounts.GEAccountManager;
 import com.gitee.authentication.accounts.GiteeAccount;
 import com.gitee.authentication.ui.GiteeChooseAccountDialog;
@@ -22,19 +22,26 @@ import com.intellij.openapi.application.AccessToken;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.SensitiveProgressWrapper;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.NlsSafe;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 import git4idea.DialogManager;
 import git4idea.GitUtil;
 import git4idea.commands.*;
 import git4idea.config.GitSaveChangesPolicy;
 import git4idea.config.GitVcsSettings;
+import git4idea.fetch.GitFetchResult;
 import git4idea.i18n.GitBundle;
 import git4idea.rebase.GitRebaseProblemDetector;
 import git4idea.rebase.GitRebaser;
@@ -45,14 +52,14 @@ import git4idea.repo.GitRepository;
 import git4idea.repo.GitRepositoryManager;
 import git4idea.update.GitUpdateResult;
 import git4idea.util.GitPreservingProcess;
+import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static git4idea.commands.GitLocalChangesWouldBeOverwrittenDetector.Operation.CHECKOUT;
 import static git4idea.fetch.GitFetchSupport.fetchSupport;
@@ -61,6 +68,7 @@ public class GiteeSyncForkAction extends DumbAwareAction {
   private static final Logger LOG = GiteeUtil.LOG;
   private static final String UPSTREAM_REMOTE_NAME = "upstream";
   private static final String ORIGIN_REMOTE_NAME = "origin";
+  private static final int MAX_PARALLEL_OPERATIONS = 4;
 
   public GiteeSyncForkAction() {
     super(GiteeBundle.messagePointer("rebase.action"),
@@ -84,30 +92,19 @@ public class GiteeSyncForkAction extends DumbAwareAction {
 
     Project project = Objects.requireNonNull(e.getData(CommonDataKeys.PROJECT));
 
-    GitRepositoryManager gitRepositoryManager = project.getServiceIfCreated(GitRepositoryManager.class);
-    if (gitRepositoryManager == null) {
-      LOG.warn("Unable to get the GitRepositoryManager service");
-      return;
-    }
-
-    if (gitRepositoryManager.getRepositories().size() > 1) {
-      GiteeNotifications.showError(project,
-          GiteeNotificationIdsHolder.REBASE_MULTI_REPO_NOT_SUPPORTED,
-          GiteeBundle.message("rebase.error"),
-          GiteeBundle.message("rebase.error.multi.repo.not.supported"));
-      return;
-    }
-
     GEHostedRepositoriesManager ghRepositoriesManager = project.getServiceIfCreated(GEHostedRepositoriesManager.class);
     if (ghRepositoriesManager == null) {
       LOG.warn("Unable to get the GHProjectRepositoriesManager service");
       return;
     }
 
-    Set<GEGitRepositoryMapping> repositories = HostedGitRepositoriesManagerKt.getKnownRepositories(ghRepositoriesManager);
-    GEGitRepositoryMapping originMapping = ContainerUtil.find(repositories, mapping ->
-        mapping.getRemote().getRemote().getName().equals(ORIGIN_REMOTE_NAME));
-    if (originMapping == null) {
+    Map<GitRepository, GEGitRepositoryMapping> originMappings = new LinkedHashMap<>();
+    for (GEGitRepositoryMapping mapping : HostedGitRepositoriesManagerKt.getKnownRepositories(ghRepositoriesManager)) {
+      if (mapping.getRemote().getRemote().getName().equals(ORIGIN_REMOTE_NAME)) {
+        originMappings.putIfAbsent(mapping.getGitRepository(), mapping);
+      }
+    }
+    if (originMappings.isEmpty()) {
       GiteeNotifications.showError(project,
           GiteeNotificationIdsHolder.REBASE_REMOTE_ORIGIN_NOT_FOUND,
           GiteeBundle.message("rebase.error"),
@@ -115,53 +112,49 @@ public class GiteeSyncForkAction extends DumbAwareAction {
       return;
     }
 
-    GEAccountManager accountManager = ApplicationManager.getApplication().getService(GEAccountManager.class);
-    GiteeServerPath serverPath = originMapping.getRepository().getServerPath();
-    GiteeAccount giteeAccount;
+    Map<GiteeServerPath, GiteeAccount> serverAccounts = new HashMap<>();
+    List<SyncTarget> targets = new ArrayList<>();
+    for (GEGitRepositoryMapping mapping : originMappings.values()) {
+      GiteeServerPath serverPath = mapping.getRepository().getServerPath();
+      GiteeAccount giteeAccount = serverAccounts.get(serverPath);
+      if (giteeAccount == null) {
+        giteeAccount = chooseAccount(project, serverPath);
+        if (giteeAccount == null) {
+          GiteeNotifications.showError(project,
+              GiteeNotificationIdsHolder.REBASE_ACCOUNT_NOT_FOUND,
+              GiteeBundle.message("rebase.error"),
+              GiteeBundle.message("rebase.error.no.suitable.account.found"));
+          return;
+        }
+        serverAccounts.put(serverPath, giteeAccount);
+      }
+      targets.add(new SyncTarget(mapping.getGitRepository(), mapping.getRepository().getRepositoryPath(), giteeAccount));
+    }
+
+    new SyncForkTask(project, Git.getInstance(), targets).queue();
+  }
 
+  @Nullable
+  private static GiteeAccount chooseAccount(@NotNull Project project, @NotNull GiteeServerPath serverPath) {
+    GEAccountManager accountManager = ApplicationManager.getApplication().getService(GEAccountManager.class);
     List<GiteeAccount> accounts = ContainerUtil.filter(
         accountManager.getAccountsState().getValue(),
         account -> serverPath.equals(account.getServer())
     );
     if (accounts.size() == 0) {
-      giteeAccount = GECompatibilityUtil.requestNewAccountForServer(serverPath, project);
-    } else if (accounts.size() == 1) {
-      giteeAccount = accounts.get(0);
-    } else {
-      GiteeChooseAccountDialog chooseAccountDialog = new GiteeChooseAccountDialog(project,
-          null,
-          accounts,
-          GiteeBundle.message("account.choose.for", serverPath),
-          false,
-          true);
-      DialogManager.show(chooseAccountDialog);
-      if (chooseAccountDialog.isOK()) {
-        giteeAccount = chooseAccountDialog.getAccount();
-      } else {
-        GiteeNotifications.showError(project,
-            GiteeNotificationIdsHolder.REBASE_ACCOUNT_NOT_FOUND,
-            GiteeBundle.message("rebase.error"),
-            GiteeBundle.message("rebase.error.no.suitable.account.found"));
-        return;
-      }
+      return GECompatibilityUtil.requestNewAccountForServer(serverPath, project);
     }
-    if (giteeAccount == null) {
-      GiteeNotifications.showError(project,
-          GiteeNotificationIdsHolder.REBASE_ACCOUNT_NOT_FOUND,
-          GiteeBundle.message("rebase.error"),
-          GiteeBundle.message("rebase.error.no.suitable.account.found"));
-      return;
+    if (accounts.size() == 1) {
+      return accounts.get(0);
     }
-
-//    GiteeApiRequestExecutor executor = GiteeApiRequestExecutorManager.getInstance().getExecutor(giteeAccount, project);
-//    if (executor == null) {
-//      LOG.warn("Unable to perform the Gitee Sync Fork action. Unable to get GiteeApiRequestExecutor");
-//      return;
-//    }
-
-    new SyncForkTask(project, Git.getInstance(), giteeAccount,
-        originMapping.getRemote().getRepository(),
-        originMapping.getRepository().getRepositoryPath()).queue();
+    GiteeChooseAccountDialog chooseAccountDialog = new GiteeChooseAccountDialog(project,
+        null,
+        accounts,
+        GiteeBundle.message("account.choose.for", serverPath),
+        false,
+        true);
+    DialogManager.show(chooseAccountDialog);
+    return chooseAccountDialog.isOK() ? chooseAccountDialog.getAccount() : null;
   }
 
   private static boolean isEnabledAndVisible(@NotNull AnActionEvent e) {
@@ -175,162 +168,379 @@ public class GiteeSyncForkAction extends DumbAwareAction {
     return !repositories.isEmpty();
   }
 
+  private static class SyncTarget {
+    @NotNull
+    private final GitRepository myRepository;
+    @NotNull
+    private final GERepositoryPath myRepoPath;
+    @NotNull
+    private final GiteeAccount myAccount;
+
+    @Nullable
+    private GiteeRepo myParentRepo;
+    @Nullable
+    private GitRemote myParentRemote;
+
+    SyncTarget(@NotNull GitRepository repository,
+               @NotNull GERepositoryPath repoPath,
+               @NotNull GiteeAccount account) {
+      myRepository = repository;
+      myRepoPath = repoPath;
+      myAccount = account;
+    }
+  }
+
+  private static class SyncProblem {
+    @NotNull
+    private final String myNotificationId;
+    @Nullable
+    @Nls
+    private final String myTitle;
+    @Nullable
+    @Nls
+    private final String myMessage;
+
+    /**
+     * @param title   notification title, {@code null} for the generic rebase error
+     * @param message problem description, {@code null} if the user has already been notified about it
+     */
+    SyncProblem(@NotNull String notificationId, @Nullable @Nls String title, @Nullable @Nls String message) {
+      myNotificationId = notificationId;
+      myTitle = title;
+      myMessage = message;
+    }
+
+    @NotNull
+    @Nls
+    String getTitle() {
+      return myTitle != null ? myTitle : GiteeBundle.message("rebase.error");
+    }
+
+    @NotNull
+    @Nls
+    String getSummary() {
+      String message = StringUtil.notNullize(myMessage);
+      return myTitle != null ? myTitle + ": " + message : message;
+    }
+  }
+
+  private interface SyncStep {
+    /**
+     * @return a problem of the target or {@code null} if the step succeeded
+     */
+    @Nullable
+    SyncProblem run(@NotNull SyncTarget target, @NotNull ProgressIndicator indicator);
+  }
+
   private static class SyncForkTask extends Task.Backgroundable {
+    private static final double PARENTS_FRACTION = 0.2;
+    private static final double FETCH_FRACTION = 0.6;
+
     @NotNull
     private final Git myGit;
     @NotNull
-    private final GiteeAccount myAccount;
+    private final List<SyncTarget> myTargets;
     @NotNull
-    private final GitRepository myRepository;
+    private final Map<GitRepository, SyncProblem> myProblems = new ConcurrentHashMap<>();
     @NotNull
-    private final GERepositoryPath myRepoPath;
+    private final Map<GitRepository, GiteeRepoDetailed> myNotForks = new ConcurrentHashMap<>();
 
     SyncForkTask(@NotNull Project project,
                  @NotNull Git git,
-                 @NotNull GiteeAccount account,
-                 @NotNull GitRepository repository,
-                 @NotNull GERepositoryPath repoPath) {
+                 @NotNull List<SyncTarget> targets) {
       super(project, GiteeBundle.message("rebase.process"));
       myGit = git;
-      myAccount = account;
-      myRepository = repository;
-      myRepoPath = repoPath;
+      myTargets = targets;
     }
 
     @Override
     public void run(@NotNull ProgressIndicator indicator) {
-      GECredentials credentials = GECompatibilityUtil.getOrRequestCredentials(myAccount, myProject);
-      if (credentials == null) return;
-      GiteeApiRequestExecutor executor = GiteeApiRequestExecutor.Factory.getInstance().create(credentials);
-
-      myRepository.update();
+      Map<GiteeAccount, GiteeApiRequestExecutor> executors = new HashMap<>();
+      for (SyncTarget target : myTargets) {
+        if (executors.containsKey(target.myAccount)) continue;
+        GiteeApiRequestExecutor executor = GEApiRequestExecutorRegistry.getInstance().getOrRequestExecutor(target.myAccount, myProject);
+        if (executor == null) return;
+        executors.put(target.myAccount, executor);
+      }
 
-      GiteeRepo parentRepo = validateRepoAndLoadParent(executor, indicator);
-      if (parentRepo == null) return;
+      indicator.setIndeterminate(false);
+      List<SyncTarget> fetched = new ArrayList<>();
+      ExecutorService pool = AppExecutorUtil.createBoundedApplicationPoolExecutor("Gitee Sync Fork", MAX_PARALLEL_OPERATIONS);
+      try {
+        indicator.setText(GiteeBundle.message("rebase.process.loading.parents"));
+        runConcurrently(pool, indicator, myTargets, 0, PARENTS_FRACTION,
+            (target, targetIndicator) -> loadParent(executors.get(target.myAccount), target, targetIndicator));
+
+        List<SyncTarget> withParent = new ArrayList<>();
+        for (SyncTarget target : myTargets) {
+          if (target.myParentRepo == null) continue;
+          SyncProblem problem = configureParentRemote(indicator, target, target.myParentRepo.getFullPath());
+          if (problem != null) {
+            myProblems.put(target.myRepository, problem);
+          } else {
+            withParent.add(target);
+          }
+        }
 
-      GitRemote parentRemote = configureParentRemote(indicator, parentRepo.getFullPath());
-      if (parentRemote == null) return;
+        indicator.setText(GiteeBundle.message("rebase.process.fetching.upstreams"));
+        runConcurrently(pool, indicator, withParent, PARENTS_FRACTION, FETCH_FRACTION, this::fetchParent);
+        for (SyncTarget target : withParent) {
+          if (!myProblems.containsKey(target.myRepository)) fetched.add(target);
+        }
+      } finally {
+        pool.shutdownNow();
+      }
 
-      String branchName = parentRepo.getDefaultBranch();
-      if (branchName == null) {
-        GiteeNotifications.showError(myProject,
-            GiteeNotificationIdsHolder.REBASE_REPO_NOT_FOUND,
-            GiteeBundle.message("rebase.error"),
-            GiteeBundle.message("rebase.error.no.default.branch"));
-        return;
+      Set<GitRepository> rebased = new LinkedHashSet<>();
+      if (!fetched.isEmpty()) {
+        // an enclosing root sorts before the roots nested inside it, so it is rebased first
+        fetched.sort(Comparator.comparing(target -> target.myRepository.getRoot().getPath()));
+        rebaseCurrentBranches(indicator, fetched, rebased);
       }
+      notifyResult(rebased);
+    }
 
-      if (!fetchParent(indicator, parentRemote)) {
-        return;
+    private void runConcurrently(@NotNull ExecutorService pool,
+                                 @NotNull ProgressIndicator indicator,
+                                 @NotNull List<SyncTarget> targets,
+                                 double fromFraction,
+                                 double toFraction,
+                                 @NotNull SyncStep step) {
+      if (targets.isEmpty()) return;
+
+      AtomicInteger completed = new AtomicInteger();
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (SyncTarget target : targets) {
+        ProgressIndicator targetIndicator = new SensitiveProgressWrapper(indicator);
+        futures.add(CompletableFuture.runAsync(() -> {
+          try {
+            SyncProblem problem = ProgressManager.getInstance()
+                .runProcess((Computable<SyncProblem>)() -> step.run(target, targetIndicator), targetIndicator);
+            if (problem != null) myProblems.put(target.myRepository, problem);
+          } catch (ProcessCanceledException ignored) {
+          } catch (RuntimeException e) {
+            LOG.warn(e);
+            myProblems.put(target.myRepository,
+                new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null, GiteeUtil.getErrorTextFromException(e)));
+          } finally {
+            completed.incrementAndGet();
+          }
+        }, pool));
       }
 
-      rebaseCurrentBranch(indicator, parentRemote, branchName);
+      CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+      while (true) {
+        indicator.checkCanceled();
+        indicator.setFraction(fromFraction + (toFraction - fromFraction) * completed.get() / targets.size());
+        try {
+          all.get(50, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException ignored) {
+        } catch (InterruptedException e) {
+          throw new ProcessCanceledException(e);
+        } catch (ExecutionException e) {
+          LOG.error(e.getCause());
+          break;
+        }
+      }
+      indicator.setFraction(toFraction);
     }
 
     @Nullable
-    private GiteeRepo validateRepoAndLoadParent(@NotNull GiteeApiRequestExecutor executor, @NotNull ProgressIndicator indicator) {
+    private SyncProblem loadParent(@NotNull GiteeApiRequestExecutor executor,
+                                   @NotNull SyncTarget target,
+                                   @NotNull ProgressIndicator indicator) {
+      target.myRepository.update();
       try {
-        GiteeRepoDetailed repositoryInfo =
-            executor.execute(indicator, GiteeApiRequests.Repos.get(myAccount.getServer(), myRepoPath.getOwner(), myRepoPath.getRepository()));
+        GiteeRepoDetailed repositoryInfo = executor.execute(indicator,
+            GiteeApiRequests.Repos.get(target.myAccount.getServer(), target.myRepoPath.getOwner(), target.myRepoPath.getRepository()));
         if (repositoryInfo == null) {
-          GiteeNotifications.showError(myProject,
-              GiteeNotificationIdsHolder.REBASE_REPO_NOT_FOUND,
-              GiteeBundle.message("rebase.error"),
-              GiteeBundle.message("rebase.error.repo.not.found", myRepoPath.toString()));
-          return null;
+          return new SyncProblem(GiteeNotificationIdsHolder.REBASE_REPO_NOT_FOUND, null,
+              GiteeBundle.message("rebase.error.repo.not.found", target.myRepoPath.toString()));
         }
 
         GiteeRepo parentRepo = repositoryInfo.getParent();
         if (!repositoryInfo.isFork() || parentRepo == null) {
-          GiteeNotifications.showWarningURL(myProject,
-              GiteeNotificationIdsHolder.REBASE_REPO_IS_NOT_A_FORK,
-              GiteeBundle.message("rebase.error"),
-              "Gitee repository ", "'" + repositoryInfo.getName() + "'", " is not a fork",
-              repositoryInfo.getHtmlUrl());
+          // nothing to sync, such roots are skipped rather than failed
+          myNotForks.put(target.myRepository, repositoryInfo);
           return null;
         }
-        return parentRepo;
-      } catch (IOException e) {
-        GiteeNotifications.showError(myProject,
-            GiteeNotificationIdsHolder.REBASE_CANNOT_LOAD_REPO_INFO,
-            GiteeBundle.message("cannot.load.repo.info"),
-            e);
+        if (parentRepo.getDefaultBranch() == null) {
+          return new SyncProblem(GiteeNotificationIdsHolder.REBASE_REPO_NOT_FOUND, null,
+              GiteeBundle.message("rebase.error.no.default.branch"));
+        }
+        target.myParentRepo = parentRepo;
         return null;
+      } catch (IOException e) {
+        LOG.warn("Cannot load repository info for " + target.myRepoPath, e);
+        return new SyncProblem(GiteeNotificationIdsHolder.REBASE_CANNOT_LOAD_REPO_INFO,
+            GiteeBundle.message("cannot.load.repo.info"), GiteeUtil.getErrorTextFromException(e));
       }
     }
 
     @Nullable
-    private GitRemote configureParentRemote(@NotNull ProgressIndicator indicator, @NotNull GERepositoryPath parentRepoPath) {
+    private SyncProblem configureParentRemote(@NotNull ProgressIndicator indicator,
+                                              @NotNull SyncTarget target,
+                                              @NotNull GERepositoryPath parentRepoPath) {
       LOG.info("Configuring upstream remote");
       indicator.setText(GiteeBundle.message("rebase.process.configuring.upstream.remote"));
 
-      GitRemote upstreamRemote = findRemote(parentRepoPath);
+      GitRemote upstreamRemote = findRemote(target, parentRepoPath);
       if (upstreamRemote != null) {
         LOG.info("Correct upstream remote already exists");
-        return upstreamRemote;
+        target.myParentRemote = upstreamRemote;
+        return null;
       }
 
       LOG.info("Adding Gitee parent as a remote host");
       indicator.setText(GiteeBundle.message("rebase.process.adding.gitee.parent.as.remote.host"));
-      String parentRepoUrl = GiteeGitHelper.getInstance().getRemoteUrl(myAccount.getServer(), parentRepoPath);
+      String parentRepoUrl = GiteeGitHelper.getInstance().getRemoteUrl(target.myAccount.getServer(), parentRepoPath);
       try {
-        myGit.addRemote(myRepository, UPSTREAM_REMOTE_NAME, parentRepoUrl).throwOnError();
+        myGit.addRemote(target.myRepository, UPSTREAM_REMOTE_NAME, parentRepoUrl).throwOnError();
       } catch (VcsException e) {
-        GiteeNotifications.showError(myProject,
-            GiteeNotificationIdsHolder.REBASE_CANNOT_CONFIGURE_UPSTREAM_REMOTE,
-            GiteeBundle.message("rebase.error"),
+        return new SyncProblem(GiteeNotificationIdsHolder.REBASE_CANNOT_CONFIGURE_UPSTREAM_REMOTE, null,
             GiteeBundle.message("cannot.configure.remote", UPSTREAM_REMOTE_NAME, e.getMessage()));
-        return null;
       }
-      myRepository.update();
-      upstreamRemote = findRemote(parentRepoPath);
+      target.myRepository.update();
+      upstreamRemote = findRemote(target, parentRepoPath);
       if (upstreamRemote == null) {
-        GiteeNotifications.showError(myProject,
-            GiteeNotificationIdsHolder.REBASE_CANNOT_CONFIGURE_UPSTREAM_REMOTE,
-            GiteeBundle.message("rebase.error"),
+        return new SyncProblem(GiteeNotificationIdsHolder.REBASE_CANNOT_CONFIGURE_UPSTREAM_REMOTE, null,
             GiteeBundle.message("rebase.error.upstream.not.found", UPSTREAM_REMOTE_NAME));
       }
-      return upstreamRemote;
+      target.myParentRemote = upstreamRemote;
+      return null;
     }
 
     @Nullable
-    private GitRemote findRemote(@NotNull GERepositoryPath repoPath) {
-      return ContainerUtil.find(myRepository.getRemotes(), remote -> {
+    private static GitRemote findRemote(@NotNull SyncTarget target, @NotNull GERepositoryPath repoPath) {
+      return ContainerUtil.find(target.myRepository.getRemotes(), remote -> {
         String url = remote.getFirstUrl();
-        if (url == null || !GitHostingUrlUtil.match(myAccount.getServer().toURI(), url)) return false;
+        if (url == null || !GitHostingUrlUtil.match(target.myAccount.getServer().toURI(), url)) return false;
 
         GERepositoryPath remotePath = GiteeUrlUtil.getUserAndRepositoryFromRemoteUrl(url);
         return repoPath.equals(remotePath);
       });
     }
 
-    private boolean fetchParent(@NotNull ProgressIndicator indicator, @NotNull GitRemote remote) {
+    @Nullable
+    private SyncProblem fetchParent(@NotNull SyncTarget target, @NotNull ProgressIndicator indicator) {
       LOG.info("Fetching upstream");
       indicator.setText(GiteeBundle.message("rebase.process.fetching.upstream"));
-      return fetchSupport(myProject).fetch(myRepository, remote).showNotificationIfFailed();
+      GitRemote remote = Objects.requireNonNull(target.myParentRemote);
+
+      GiteeSettings settings = GiteeSettings.getInstance();
+      if (!settings.isSyncForkNarrowFetch()) {
+        return fetchRemote(target.myRepository, remote, false);
+      }
+
+      String branch = Objects.requireNonNull(Objects.requireNonNull(target.myParentRepo).getDefaultBranch());
+      int depth = settings.getSyncForkFetchDepth();
+      // a depth-limited fetch would turn a complete clone into a shallow one, so the depth only applies to shallow clones
+      boolean limitDepth = depth > 0 && isShallow(target.myRepository);
+      GitLineHandler handler = new GitLineHandler(myProject, target.myRepository.getRoot(), GitCommand.FETCH);
+      handler.setUrls(remote.getUrls());
+      handler.addParameters("--progress");
+      if (!settings.isSyncForkFetchTags()) handler.addParameters("--no-tags");
+      if (limitDepth) handler.addParameters("--depth=" + depth);
+      handler.addParameters(remote.getName(), "+refs/heads/" + branch + ":refs/remotes/" + remote.getName() + "/" + branch);
+      handler.addLineListener(GitStandardProgressAnalyzer.createListener(indicator));
+      GitCommandResult result = myGit.runCommand(handler);
+      if (!result.success()) {
+        return new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null, result.getErrorOutputAsJoinedString());
+      }
+
+      if (limitDepth && !hasMergeBase(target.myRepository, getOnto(target))) {
+        LOG.info("Fetched upstream history is too shallow to rebase, fetching the whole upstream");
+        return fetchRemote(target.myRepository, remote, true);
+      }
+      return null;
+    }
+
+    @Nullable
+    private SyncProblem fetchRemote(@NotNull GitRepository repository, @NotNull GitRemote remote, boolean deepen) {
+      // a depth-limited fetch leaves the repository shallow, and a plain fetch would not bring the missing history
+      if (deepen && isShallow(repository)) {
+        GitLineHandler handler = new GitLineHandler(myProject, repository.getRoot(), GitCommand.FETCH);
+        handler.setUrls(remote.getUrls());
+        handler.addParameters("--unshallow", remote.getName());
+        GitCommandResult result = myGit.runCommand(handler);
+        return result.success() ? null
+                                : new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null, result.getErrorOutputAsJoinedString());
+      }
+
+      GitFetchResult result = fetchSupport(myProject).fetch(repository, remote);
+      if (isSingleTarget()) {
+        return result.showNotificationIfFailed() ? null : new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null, null);
+      }
+      try {
+        result.throwExceptionIfFailed();
+        return null;
+      } catch (VcsException e) {
+        return new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null, e.getMessage());
+      }
+    }
+
+    private boolean isSingleTarget() {
+      return myTargets.size() == 1;
+    }
+
+    private boolean isShallow(@NotNull GitRepository repository) {
+      GitLineHandler handler = new GitLineHandler(myProject, repository.getRoot(), GitCommand.REV_PARSE);
+      handler.setSilent(true);
+      handler.addParameters("--is-shallow-repository");
+      GitCommandResult result = myGit.runCommand(handler);
+      return result.success() && "true".equals(result.getOutputAsJoinedString().trim());
+    }
+
+    private boolean hasMergeBase(@NotNull GitRepository repository, @NotNull String onto) {
+      GitLineHandler handler = new GitLineHandler(myProject, repository.getRoot(), GitCommand.MERGE_BASE);
+      handler.setSilent(true);
+      handler.addParameters("HEAD", onto);
+      GitCommandResult result = myGit.runCommand(handler);
+      return result.success() && !result.getOutputAsJoinedString().isBlank();
+    }
+
+    @NotNull
+    @NlsSafe
+    private static String getOnto(@NotNull SyncTarget target) {
+      return Objects.requireNonNull(target.myParentRemote).getName() + "/" +
+             Objects.requireNonNull(Objects.requireNonNull(target.myParentRepo).getDefaultBranch());
     }
 
-    private void rebaseCurrentBranch(@NotNull ProgressIndicator indicator,
-                                     @NotNull GitRemote parentRemote,
-                                     @NotNull @NlsSafe String branch) {
-      String onto = parentRemote.getName() + "/" + branch;
-      LOG.info("Rebasing current branch");
-      indicator.setText(GiteeBundle.message("rebase.process.rebasing.branch.onto", onto));
+    private void rebaseCurrentBranches(@NotNull ProgressIndicator indicator,
+                                       @NotNull List<SyncTarget> targets,
+                                       @NotNull Set<GitRepository> rebased) {
+      LOG.info("Rebasing current branches");
       try (AccessToken ignore = DvcsUtil.workingTreeChangeStarted(myProject, GitBundle.message("rebase.git.operation.name"))) {
-        List<VirtualFile> rootsToSave = Collections.singletonList(myRepository.getRoot());
+        List<VirtualFile> rootsToSave = ContainerUtil.map(targets, target -> target.myRepository.getRoot());
+        String destination = StringUtil.join(targets, SyncForkTask::getOnto, ", ");
         GitSaveChangesPolicy saveMethod = GitVcsSettings.getInstance(myProject).getSaveChangesPolicy();
         GitPreservingProcess process =
-            new GitPreservingProcess(myProject, myGit, rootsToSave, GiteeBundle.message("rebase.process.operation.title"), onto,
+            new GitPreservingProcess(myProject, myGit, rootsToSave, GiteeBundle.message("rebase.process.operation.title"), destination,
                 saveMethod, indicator,
-                () -> doRebaseCurrentBranch(indicator, onto));
+                () -> {
+                  for (int i = 0; i < targets.size(); i++) {
+                    SyncTarget target = targets.get(i);
+                    String onto = getOnto(target);
+                    indicator.setFraction(FETCH_FRACTION + (1 - FETCH_FRACTION) * i / targets.size());
+                    indicator.setText(GiteeBundle.message("rebase.process.rebasing.branch.onto", onto));
+                    if (doRebaseCurrentBranch(indicator, target.myRepository, onto)) {
+                      rebased.add(target.myRepository);
+                    } else {
+                      // the rebaser has already notified about the failure itself, only a root among several is worth listing
+                      myProblems.put(target.myRepository, new SyncProblem(GiteeNotificationIdsHolder.REBASE_FAILED, null,
+                          isSingleTarget() ? null : GiteeBundle.message("rebase.error.rebase.not.completed", onto)));
+                    }
+                  }
+                });
         process.execute();
       }
     }
 
-    private void doRebaseCurrentBranch(@NotNull ProgressIndicator indicator, @NotNull String onto) {
+    private boolean doRebaseCurrentBranch(@NotNull ProgressIndicator indicator, @NotNull GitRepository repository, @NotNull String onto) {
       GitRepositoryManager repositoryManager = GitUtil.getRepositoryManager(myProject);
       GitRebaser rebaser = new GitRebaser(myProject, myGit, indicator);
-      VirtualFile root = myRepository.getRoot();
+      VirtualFile root = repository.getRoot();
 
       GitLineHandler handler = new GitLineHandler(myProject, root, GitCommand.REBASE);
       handler.setStdoutSuppressed(false);
@@ -353,22 +563,81 @@ public class GiteeSyncForkAction extends DumbAwareAction {
       repositoryManager.updateRepository(root);
       if (rebaseResult.success()) {
         root.refresh(false, true);
+        return true;
+      }
+      GitUpdateResult result = rebaser.handleRebaseFailure(handler, root, rebaseResult, rebaseConflictDetector,
+          untrackedFilesDetector, localChangesDetector);
+      return result == GitUpdateResult.NOTHING_TO_UPDATE ||
+             result == GitUpdateResult.SUCCESS ||
+             result == GitUpdateResult.SUCCESS_WITH_RESOLVED_CONFLICTS;
+    }
+
+    private void notifyResult(@NotNull Set<GitRepository> rebased) {
+      if (isSingleTarget()) {
+        notifySingleResult(myTargets.get(0), !rebased.isEmpty());
+        return;
+      }
+
+      List<String> lines = new ArrayList<>();
+      if (!rebased.isEmpty()) {
+        lines.add(GiteeBundle.message("rebase.process.success.roots", StringUtil.join(rebased, DvcsUtil::getShortRepositoryName, ", ")));
+      }
+      boolean failed = false;
+      for (SyncTarget target : myTargets) {
+        SyncProblem problem = myProblems.get(target.myRepository);
+        if (problem == null || problem.myMessage == null) continue;
+        failed = true;
+        lines.add(GiteeBundle.message("rebase.error.root", DvcsUtil.getShortRepositoryName(target.myRepository),
+            StringUtil.escapeXmlEntities(problem.getSummary())));
+      }
+      for (SyncTarget target : myTargets) {
+        GiteeRepoDetailed repositoryInfo = myNotForks.get(target.myRepository);
+        if (repositoryInfo == null) continue;
+        lines.add(GiteeBundle.message("rebase.error.root", DvcsUtil.getShortRepositoryName(target.myRepository),
+            StringUtil.escapeXmlEntities(GiteeBundle.message("rebase.error.repo.is.not.a.fork", repositoryInfo.getName()))));
+      }
+      if (lines.isEmpty()) return;
+
+      if (failed) {
+        GiteeNotifications.showError(myProject,
+            GiteeNotificationIdsHolder.REBASE_FAILED,
+            GiteeBundle.message("rebase.error"),
+            StringUtil.join(lines, "<br/>"));
+      } else if (!rebased.isEmpty()) {
         GiteeNotifications.showInfo(myProject,
             GiteeNotificationIdsHolder.REBASE_SUCCESS,
             GiteeBundle.message("rebase.process.success"),
-            "");
+            StringUtil.join(lines, "<br/>"));
       } else {
-        GitUpdateResult result = rebaser.handleRebaseFailure(handler, root, rebaseResult, rebaseConflictDetector,
-            untrackedFilesDetector, localChangesDetector);
-        if (result == GitUpdateResult.NOTHING_TO_UPDATE ||
-            result == GitUpdateResult.SUCCESS ||
-            result == GitUpdateResult.SUCCESS_WITH_RESOLVED_CONFLICTS) {
-          GiteeNotifications.showInfo(myProject,
-              GiteeNotificationIdsHolder.REBASE_SUCCESS,
-              GiteeBundle.message("rebase.process.success"),
-              "");
+        GiteeNotifications.showInfo(myProject,
+            GiteeNotificationIdsHolder.REBASE_REPO_IS_NOT_A_FORK,
+            GiteeBundle.message("rebase.error"),
+            StringUtil.join(lines, "<br/>"));
+      }
+    }
+
+    private void notifySingleResult(@NotNull SyncTarget target, boolean rebased) {
+      GiteeRepoDetailed repositoryInfo = myNotForks.get(target.myRepository);
+      if (repositoryInfo != null) {
+        GiteeNotifications.showWarningURL(myProject,
+            GiteeNotificationIdsHolder.REBASE_REPO_IS_NOT_A_FORK,
+            GiteeBundle.message("rebase.error"),
+            "Gitee repository ", "'" + repositoryInfo.getName() + "'", " is not a fork",
+            repositoryInfo.getHtmlUrl());
+        return;
+      }
+
+      SyncProblem problem = myProblems.get(target.myRepository);
+      if (problem != null) {
+        if (problem.myMessage != null) {
+          GiteeNotifications.showError(myProject, problem.myNotificationId, problem.getTitle(), problem.myMessage);
         }
+      } else if (rebased) {
+        GiteeNotifications.showInfo(myProject,
+            GiteeNotificationIdsHolder.REBASE_SUCCESS,
+            GiteeBundle.message("rebase.process.success"),
+            "");
       }
     }
   }
-}
\ No newline at end of file
+}
@@ -15,6 +15,7 @@
  */
 package com.gitee.api.data;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.io.mandatory.Mandatory;
 import org.jetbrains.io.mandatory.RestModel;
@@ -24,9 +25,15 @@ import org.jetbrains.io.mandatory.RestModel;
 public class GiteeBranch {
   @Mandatory
   private String name;
+  @JsonProperty("protected")
+  private Boolean isProtected;
 
   @NotNull
   public String getName() {
     return name;
   }
+
+  public boolean isProtected() {
+    return isProtected != null && isProtected;
+  }
 }
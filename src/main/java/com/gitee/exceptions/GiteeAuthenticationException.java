@@ -26,19 +26,36 @@ import java.io.IOException;
  * @author Aleksey Pivovarov
  */
 public class GiteeAuthenticationException extends IOException {
+	private final int myStatusCode;
+
 	public GiteeAuthenticationException() {
 		super();
+		myStatusCode = 0;
 	}
 
 	public GiteeAuthenticationException(String message) {
+		this(message, 0);
+	}
+
+	public GiteeAuthenticationException(String message, int statusCode) {
 		super(message);
+		myStatusCode = statusCode;
 	}
 
 	public GiteeAuthenticationException(String message, Throwable cause) {
 		super(message, cause);
+		myStatusCode = 0;
 	}
 
 	public GiteeAuthenticationException(Throwable cause) {
 		super(cause);
+		myStatusCode = 0;
+	}
+
+	/**
+	 * @return HTTP status code of the response, 0 if the exception was not caused by a response
+	 */
+	public int getStatusCode() {
+		return myStatusCode;
 	}
 }
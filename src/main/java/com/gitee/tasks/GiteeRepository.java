@@ -17,6 +17,7 @@ package com.gitee.tasks;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gitee.api.GiteeApiRateLimiter;
 import com.gitee.api.GiteeApiRequestExecutor;
 import com.gitee.api.GiteeApiRequests;
 import com.gitee.api.GiteeServerPath;
@@ -24,16 +25,24 @@ import com.gitee.api.data.GiteeIssue;
 import com.gitee.api.data.GiteeIssueBase;
 import com.gitee.api.data.GiteeIssueComment;
 import com.gitee.api.data.GiteeIssueState;
+import com.gitee.api.data.request.GiteeRequestPagination;
 import com.gitee.api.util.GiteeApiPagesLoader;
 import com.gitee.authentication.GECredentials;
 import com.gitee.exceptions.GiteeAuthenticationException;
 import com.gitee.exceptions.GiteeJsonException;
 import com.gitee.exceptions.GiteeRateLimitExceededException;
 import com.gitee.exceptions.GiteeStatusCodeException;
+import com.gitee.i18n.GiteeBundle;
 import com.gitee.icons.GiteeIcons;
+import com.gitee.issue.GiteeIssuesIndex;
+import com.gitee.issue.GiteeIssuesIndexManager;
 import com.gitee.issue.GiteeIssuesLoadingHelper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.intellij.credentialStore.CredentialAttributes;
 import com.intellij.credentialStore.CredentialAttributesKt;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -49,10 +58,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +78,10 @@ import static com.fasterxml.jackson.module.kotlin.ExtensionsKt.jacksonObjectMapp
  */
 @Tag("Gitee")
 public class GiteeRepository extends BaseRepository {
+  private static final Logger LOG = Logger.getInstance(GiteeRepository.class);
+  private static final int COMMENTS_CACHE_SIZE = 500;
+  private static final int ISSUE_PAGES_CACHE_SIZE = 50;
+  private static final long ISSUE_PAGES_CACHE_EXPIRATION_MINUTES = 5;
 
   private Pattern myPattern = Pattern.compile("($^)");
 
@@ -77,8 +94,23 @@ public class GiteeRepository extends BaseRepository {
 
   private boolean myAssignedIssuesOnly = false;
 
+  private boolean myUseLocalIndex = false;
+
   private final ObjectMapper jacksonMapper = jacksonObjectMapper();
 
+  private final Cache<String, Comment[]> myCommentsCache = CacheBuilder.newBuilder().maximumSize(COMMENTS_CACHE_SIZE).build();
+  private final Set<String> myLoadingComments = ConcurrentHashMap.newKeySet();
+
+  private final Cache<String, List<GiteeIssueBase>> myIssuePagesCache = CacheBuilder.newBuilder()
+      .maximumSize(ISSUE_PAGES_CACHE_SIZE)
+      .expireAfterWrite(ISSUE_PAGES_CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+      .build();
+
+  @Nullable
+  private GiteeApiRequestExecutor myExecutor;
+  @Nullable
+  private String myExecutorPassword;
+
   @SuppressWarnings({"UnusedDeclaration"})
   GiteeRepository() {
   }
@@ -88,6 +120,7 @@ public class GiteeRepository extends BaseRepository {
     setRepoName(other.myRepoName);
     setRepoAuthor(other.myRepoAuthor);
     setAssignedIssuesOnly(other.myAssignedIssuesOnly);
+    setUseLocalIndex(other.myUseLocalIndex);
   }
 
   public GiteeRepository(GiteeRepositoryType type) {
@@ -136,10 +169,14 @@ public class GiteeRepository extends BaseRepository {
   @Override
   public Task[] getIssues(@Nullable String query, int offset, int limit, boolean withClosed) throws Exception {
     try {
-      return getIssues(query, offset + limit, withClosed);
-    } catch (GiteeRateLimitExceededException e) {
-      return Task.EMPTY_ARRAY;
-    } catch (GiteeAuthenticationException | GiteeStatusCodeException e) {
+      if (query == null) {
+        // only the periodic task sync requests issues without a query (the Open Task popup and completion pass the typed text),
+        // it runs in background and must not take the requests budget from interactive calls
+        return GiteeApiRateLimiter.computeWithPriority(GiteeApiRateLimiter.Priority.BACKGROUND,
+            () -> loadIssues(null, offset, limit, withClosed));
+      }
+      return loadIssues(query, offset, limit, withClosed);
+    } catch (GiteeAuthenticationException | GiteeStatusCodeException | GiteeRateLimitExceededException e) {
       throw new Exception(e.getMessage(), e); // Wrap to show error message
     } catch (GiteeJsonException e) {
       throw new Exception("Bad response format", e);
@@ -152,7 +189,7 @@ public class GiteeRepository extends BaseRepository {
   }
 
   @NotNull
-  private Task[] getIssues(@Nullable String query, int max, boolean withClosed) throws Exception {
+  private Task[] loadIssues(@Nullable String query, int offset, int limit, boolean withClosed) throws Exception {
     GiteeApiRequestExecutor executor = getExecutor();
     ProgressIndicator indicator = getProgressIndicator();
     GiteeServerPath server = getServer();
@@ -167,46 +204,95 @@ public class GiteeRepository extends BaseRepository {
 
     List<? extends GiteeIssueBase> issues;
 
-    if (StringUtil.isEmptyOrSpaces(query)) {
-      // search queries have way smaller request number limit
-      issues = GiteeIssuesLoadingHelper.load(
-          executor, indicator, server, getRepoAuthor(), getRepoName(), withClosed, max, assigned
-      );
+    GiteeIssuesIndex index = getReadyIndex(executor, indicator);
+    if (index != null) {
+      issues = index.search(query, withClosed, assigned, offset, limit);
     } else {
-      issues = GiteeIssuesLoadingHelper.search(
-          executor, indicator, server, getRepoAuthor(), getRepoName(), withClosed, assigned, query
-      );
+      issues = loadIssuesWindow(executor, indicator, server, query, withClosed, assigned, offset, limit);
     }
 
     List<Task> tasks = new ArrayList<>();
 
     for (GiteeIssueBase issue : issues) {
-      List<GiteeIssueComment> comments = GiteeApiPagesLoader.loadAll(
-          executor, indicator, GiteeApiRequests.Repos.Issues.Comments.pages(issue.getCommentsUrl())
-      );
-      tasks.add(createTask(issue, comments));
+      tasks.add(createTask(issue));
     }
 
     return tasks.toArray(Task.EMPTY_ARRAY);
 
   }
 
+  /**
+   * Loads only the pages overlapping {@code [offset, offset + limit)}, so scrolling the task list costs one slice per step.
+   * Pages are cached until the list is requested from the start again.
+   */
+  @NotNull
+  private List<GiteeIssueBase> loadIssuesWindow(@NotNull GiteeApiRequestExecutor executor,
+                                                @NotNull ProgressIndicator indicator,
+                                                @NotNull GiteeServerPath server,
+                                                @Nullable String query,
+                                                boolean withClosed,
+                                                @Nullable String assigned,
+                                                int offset,
+                                                int limit) throws IOException {
+    String listKey = server + "/" + getRepoAuthor() + "/" + getRepoName() + "?" + query + "&" + withClosed + "&" + assigned + "#";
+    if (offset == 0) {
+      myIssuePagesCache.asMap().keySet().removeIf(key -> key.startsWith(listKey));
+    }
+
+    return loadWindow(offset, limit, (pageNumber, pageSize) -> {
+      String pageKey = listKey + pageSize + ":" + pageNumber;
+      List<GiteeIssueBase> items = myIssuePagesCache.getIfPresent(pageKey);
+      if (items == null) {
+        items = GiteeIssuesLoadingHelper.loadPage(
+            executor, indicator, server, getRepoAuthor(), getRepoName(), withClosed, assigned, query,
+            new GiteeRequestPagination(pageNumber, pageSize)
+        );
+        myIssuePagesCache.put(pageKey, items);
+      }
+      return items;
+    });
+  }
+
+  /**
+   * Collects {@code [offset, offset + limit)} of a paged list from the pages overlapping it
+   */
+  @NotNull
+  static <T> List<T> loadWindow(int offset, int limit, @NotNull PageLoader<T> pageLoader) throws IOException {
+    List<T> result = new ArrayList<>();
+    if (limit <= 0) return result;
+
+    // the Tasks UI requests chunks of the same size, so a page usually matches the requested slice exactly
+    int pageSize = offset % limit == 0 && limit <= GiteeRequestPagination.DEFAULT_PAGE_SIZE ? limit : GiteeRequestPagination.DEFAULT_PAGE_SIZE;
+    int firstPage = offset / pageSize;
+    for (int page = firstPage; result.size() < limit; page++) {
+      List<? extends T> items = pageLoader.load(page + 1, pageSize);
+
+      int from = page == firstPage ? offset % pageSize : 0;
+      if (from >= items.size()) break;
+      result.addAll(items.subList(from, Math.min(items.size(), from + limit - result.size())));
+      if (items.size() < pageSize) break;
+    }
+    return result;
+  }
+
+  interface PageLoader<T> {
+    /**
+     * @param pageNumber 1-based
+     */
+    @NotNull
+    List<? extends T> load(int pageNumber, int pageSize) throws IOException;
+  }
+
+  /**
+   * Comments are requested only when {@link Task#getComments()} is called for the first time
+   */
   @NotNull
-  private Task createTask(@NotNull GiteeIssueBase issue, @NotNull List<GiteeIssueComment> comments) {
+  private Task createTask(@NotNull GiteeIssueBase issue) {
     return new Task() {
       @NotNull
       private final String myRepoName = getRepoName();
 
-      @NotNull
-      private final Comment[] myComments =
-          ContainerUtil.map2Array(comments, Comment.class,
-              comment -> new GiteeComment(
-                  comment.getCreatedAt(),
-                  comment.getUser().getLogin(),
-                  comment.getBody(),
-                  comment.getUser().getAvatarUrl(),
-                  comment.getUser().getHtmlUrl())
-          );
+      private volatile Comment @Nullable [] myComments;
 
       @Override
       public boolean isIssue() {
@@ -237,7 +323,13 @@ public class GiteeRepository extends BaseRepository {
 
       @Override
       public Comment @NotNull [] getComments() {
-        return myComments;
+        Comment[] comments = myComments;
+        if (comments != null) return comments;
+
+        comments = getIssueComments(issue);
+        if (comments == null) return Comment.EMPTY_ARRAY;
+        myComments = comments;
+        return comments;
       }
 
       @NotNull
@@ -296,15 +388,76 @@ public class GiteeRepository extends BaseRepository {
     final String numericId = id.substring(index + 1);
     GiteeApiRequestExecutor executor = getExecutor();
     ProgressIndicator indicator = getProgressIndicator();
+    GiteeIssuesIndex index = getReadyIndex(executor, indicator);
+    if (index != null) {
+      GiteeIssue indexed = index.find(numericId);
+      if (indexed != null) return createTask(indexed);
+    }
     GiteeIssue issue = executor.execute(
         indicator, GiteeApiRequests.Repos.Issues.get(getServer(), getRepoAuthor(), getRepoName(), numericId)
     );
     if (issue == null) return null;
 
+    return createTask(issue);
+  }
+
+  /**
+   * Comments are cached per issue and its update time, so an unchanged issue never loads them twice.
+   * On the EDT only cached comments are returned, missing ones are loaded in background for the next call.
+   *
+   * @return null if comments can't be loaded right now (failure, cancellation or EDT), such a result must not be cached
+   */
+  private Comment @Nullable [] getIssueComments(@NotNull GiteeIssueBase issue) {
+    Date updatedAt = issue.getUpdatedAt();
+    String key = issue.getCommentsUrl() + "@" + (updatedAt != null ? updatedAt.getTime() : 0);
+    Comment[] cached = myCommentsCache.getIfPresent(key);
+    if (cached != null) return cached;
+
+    if (ApplicationManager.getApplication().isDispatchThread()) {
+      loadIssueCommentsInBackground(issue, key);
+      return null;
+    }
+    try {
+      Comment[] comments = loadIssueComments(issue);
+      myCommentsCache.put(key, comments);
+      return comments;
+    } catch (IOException e) {
+      LOG.warn("Can't load comments for " + issue.getHtmlUrl(), e);
+      return null;
+    }
+  }
+
+  private void loadIssueCommentsInBackground(@NotNull GiteeIssueBase issue, @NotNull String key) {
+    if (!myLoadingComments.add(key)) return;
+    ProgressManager.getInstance().run(new com.intellij.openapi.progress.Task.Backgroundable(null, GiteeBundle.message("task.loading.comments"), true) {
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        try {
+          myCommentsCache.put(key, loadIssueComments(issue));
+        } catch (IOException e) {
+          LOG.warn("Can't load comments for " + issue.getHtmlUrl(), e);
+        }
+      }
+
+      @Override
+      public void onFinished() {
+        myLoadingComments.remove(key);
+      }
+    });
+  }
+
+  private Comment @NotNull [] loadIssueComments(@NotNull GiteeIssueBase issue) throws IOException {
     List<GiteeIssueComment> comments = GiteeApiPagesLoader.loadAll(
-        executor, indicator, GiteeApiRequests.Repos.Issues.Comments.pages(issue.getCommentsUrl())
+        getExecutor(), getProgressIndicator(), GiteeApiRequests.Repos.Issues.Comments.pages(issue.getCommentsUrl())
+    );
+    return ContainerUtil.map2Array(comments, Comment.class,
+        comment -> new GiteeComment(
+            comment.getCreatedAt(),
+            comment.getUser().getLogin(),
+            comment.getBody(),
+            comment.getUser().getAvatarUrl(),
+            comment.getUser().getHtmlUrl())
     );
-    return createTask(issue, comments);
   }
 
   @Override
@@ -392,6 +545,46 @@ public class GiteeRepository extends BaseRepository {
     myAssignedIssuesOnly = value;
   }
 
+  public boolean isUseLocalIndex() {
+    return myUseLocalIndex;
+  }
+
+  public void setUseLocalIndex(boolean value) {
+    myUseLocalIndex = value;
+  }
+
+  /**
+   * @return up-to-date local index or null if it is disabled or still being filled in background, then the API should be queried directly
+   */
+  @Nullable
+  private GiteeIssuesIndex getReadyIndex(@NotNull GiteeApiRequestExecutor executor, @NotNull ProgressIndicator indicator) throws IOException {
+    if (!myUseLocalIndex) return null;
+
+    GiteeIssuesIndex index = GiteeIssuesIndexManager.getInstance().getIndex(getServer(), getRepoAuthor(), getRepoName());
+    if (!index.isReady()) {
+      index.startInitialSync(executor);
+      return null;
+    }
+    syncIndex(index, executor, indicator);
+    return index;
+  }
+
+  /**
+   * Brings the local index up to date, a network failure is tolerated while the index has something to show
+   */
+  private static void syncIndex(@NotNull GiteeIssuesIndex index,
+                                @NotNull GiteeApiRequestExecutor executor,
+                                @NotNull ProgressIndicator indicator) throws IOException {
+    try {
+      index.sync(executor, indicator);
+    } catch (GiteeAuthenticationException e) {
+      throw e;
+    } catch (IOException e) {
+      if (index.isEmpty()) throw e;
+      LOG.info("Failed to update issues index, using the local copy", e);
+    }
+  }
+
   @Override
   @NotNull
   protected CredentialAttributes getAttributes() {
@@ -399,13 +592,25 @@ public class GiteeRepository extends BaseRepository {
     return new CredentialAttributes(serviceName, "Gitee OAuth token");
   }
 
+  /**
+   * The executor is kept while the stored credentials stay the same,
+   * so the credentials are deserialized and refreshed once for all requests of this repository
+   */
   @NotNull
-  private GiteeApiRequestExecutor getExecutor() {
-    return GiteeApiRequestExecutor.Factory.getInstance().create(getDeserializeCredentials(), (credentials, _continuation) -> {
-      setSerializeCredentials(credentials);
-      storeCredentials();
+  private synchronized GiteeApiRequestExecutor getExecutor() {
+    String password = getPassword();
+    if (myExecutor != null && Objects.equals(password, myExecutorPassword)) return myExecutor;
+
+    myExecutorPassword = password;
+    myExecutor = GiteeApiRequestExecutor.Factory.getInstance().create(getDeserializeCredentials(), (credentials, _continuation) -> {
+      synchronized (this) {
+        setSerializeCredentials(credentials);
+        storeCredentials();
+        myExecutorPassword = getPassword();
+      }
       return Unit.INSTANCE;
     });
+    return myExecutor;
   }
 
   @NotNull
@@ -429,6 +634,7 @@ public class GiteeRepository extends BaseRepository {
     if (!Objects.equals(getRepoAuthor(), that.getRepoAuthor())) return false;
     if (!Objects.equals(getRepoName(), that.getRepoName())) return false;
     if (!Comparing.equal(isAssignedIssuesOnly(), that.isAssignedIssuesOnly())) return false;
+    if (!Comparing.equal(isUseLocalIndex(), that.isUseLocalIndex())) return false;
 
     return true;
   }
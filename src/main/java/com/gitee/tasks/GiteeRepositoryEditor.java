@@ -49,6 +49,7 @@ public class GiteeRepositoryEditor extends BaseRepositoryEditor<GiteeRepository>
 	private MyTextField myRefreshToken;
 
 	private JBCheckBox myShowNotAssignedIssues;
+	private JBCheckBox myUseLocalIndex;
 	private JButton myCredentialsButton;
 	private JBLabel myHostLabel;
 	private JBLabel myRepositoryLabel;
@@ -78,6 +79,7 @@ public class GiteeRepositoryEditor extends BaseRepositoryEditor<GiteeRepository>
 		myRefreshToken.setEditable(false);
 		myRefreshToken.setText(credentials.getRefreshToken());
 		myShowNotAssignedIssues.setSelected(!repository.isAssignedIssuesOnly());
+		myUseLocalIndex.setSelected(repository.isUseLocalIndex());
 
 		DocumentListener buttonUpdater = new DocumentAdapter() {
 			@Override
@@ -144,10 +146,17 @@ public class GiteeRepositoryEditor extends BaseRepositoryEditor<GiteeRepository>
 		myCredentialsPanel.add(myRefreshToken);
 
 		myShowNotAssignedIssues = new JBCheckBox("Include issues not assigned to me");
+		myUseLocalIndex = new JBCheckBox("Keep local issue index for search and offline use");
+		myUseLocalIndex.setToolTipText("Titles and descriptions of the issues are stored in the IDE system directory");
+
+		JPanel myOptionsPanel = new JPanel();
+		myOptionsPanel.setLayout(new GridLayout(2, 1, 0, 5));
+		myOptionsPanel.add(myShowNotAssignedIssues);
+		myOptionsPanel.add(myUseLocalIndex);
 
 		JPanel myOthersPanel = new JPanel();
 		myOthersPanel.setLayout(new BorderLayout(5, 5));
-		myOthersPanel.add(myShowNotAssignedIssues, BorderLayout.CENTER);
+		myOthersPanel.add(myOptionsPanel, BorderLayout.CENTER);
 		myOthersPanel.add(myCredentialsButton, BorderLayout.EAST);
 
 		installListener(myRepoAuthor);
@@ -155,6 +164,7 @@ public class GiteeRepositoryEditor extends BaseRepositoryEditor<GiteeRepository>
 		installListener(myAccessToken);
 		installListener(myRefreshToken);
 		installListener(myShowNotAssignedIssues);
+		installListener(myUseLocalIndex);
 
 		return FormBuilder.createFormBuilder()
         .setAlignLabelOnRight(true)
@@ -182,6 +192,7 @@ public class GiteeRepositoryEditor extends BaseRepositoryEditor<GiteeRepository>
 		);
 		myRepository.storeCredentials();
 		myRepository.setAssignedIssuesOnly(isAssignedIssuesOnly());
+		myRepository.setUseLocalIndex(myUseLocalIndex.isSelected());
 	}
 
 	private void generateCredentials() {
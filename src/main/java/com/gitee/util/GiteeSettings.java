@@ -51,9 +51,14 @@ public class GiteeSettings implements PersistentStateComponent<GiteeSettings.Sta
 		public boolean PRIVATE_GIST = true;
 
 		public int CONNECTION_TIMEOUT = 5000;
+		public boolean HTTP2_TRANSPORT = false;
 
 		public ThreeState CREATE_PULL_REQUEST_CREATE_REMOTE = ThreeState.UNSURE;
 		public boolean CLONE_GIT_USING_SSH = false;
+
+		public boolean SYNC_FORK_NARROW_FETCH = false;
+		public boolean SYNC_FORK_FETCH_TAGS = true;
+		public int SYNC_FORK_FETCH_DEPTH = 0;
 	}
 
 	public static GiteeSettings getInstance() {
@@ -92,6 +97,41 @@ public class GiteeSettings implements PersistentStateComponent<GiteeSettings.Sta
 		myState.CONNECTION_TIMEOUT = timeout;
 	}
 
+	public boolean isHttp2Transport() {
+		return myState.HTTP2_TRANSPORT;
+	}
+
+	public void setHttp2Transport(boolean value) {
+		myState.HTTP2_TRANSPORT = value;
+	}
+
+	public boolean isSyncForkNarrowFetch() {
+		return myState.SYNC_FORK_NARROW_FETCH;
+	}
+
+	public void setSyncForkNarrowFetch(boolean value) {
+		myState.SYNC_FORK_NARROW_FETCH = value;
+	}
+
+	public boolean isSyncForkFetchTags() {
+		return myState.SYNC_FORK_FETCH_TAGS;
+	}
+
+	public void setSyncForkFetchTags(boolean value) {
+		myState.SYNC_FORK_FETCH_TAGS = value;
+	}
+
+	/**
+	 * @return depth of the upstream history fetched in narrow mode into shallow clones, {@code 0} for the complete history
+	 */
+	public int getSyncForkFetchDepth() {
+		return myState.SYNC_FORK_FETCH_DEPTH;
+	}
+
+	public void setSyncForkFetchDepth(int depth) {
+		myState.SYNC_FORK_FETCH_DEPTH = depth;
+	}
+
 	public boolean isCopyURLGist() {
 		return myState.COPY_URL_GIST;
 	}
@@ -1,12 +1,11 @@
 package com.gitee
 
-import com.gitee.api.GiteeApiRequestExecutor
+import com.gitee.api.GEApiRequestExecutorRegistry
 import com.gitee.api.GiteeApiRequests
 import com.gitee.api.data.request.GiteeRequestPagination
 import com.gitee.api.data.request.Type
 import com.gitee.api.util.GiteeApiPagesLoader
 import com.gitee.authentication.GEAccountsUtil
-import com.gitee.authentication.accounts.GEAccountManager
 import com.gitee.authentication.accounts.GiteeAccount
 import com.gitee.authentication.accounts.GiteeAccountInformationProvider
 import com.gitee.exceptions.GiteeMissingTokenException
@@ -43,7 +42,6 @@ import git4idea.i18n.GitBundle
 import git4idea.remote.hosting.findKnownRepositories
 import git4idea.repo.GitRepository
 import git4idea.util.GitFileUtils
-import kotlinx.coroutines.runBlocking
 import java.awt.Component
 import java.io.IOException
 
@@ -94,12 +92,8 @@ object GEShareProjectUtil {
         while (true) {
           try {
             return progressManager.runProcessWithProgressSynchronously(ThrowableComputable<Pair<Boolean, Set<String>>, IOException> {
-              val credentials = runBlocking {
-                service<GEAccountManager>().findCredentials(account) ?: throw GiteeMissingTokenException(account)
-              }
-              val requestExecutor = GiteeApiRequestExecutor.Factory.getInstance().create(credentials) {
-                  newCredentials -> service<GEAccountManager>().updateAccount(account, newCredentials)
-              }
+              val requestExecutor = GEApiRequestExecutorRegistry.getInstance().findExecutor(account)
+                                    ?: throw GiteeMissingTokenException(account)
 
               val user = requestExecutor.execute(progressManager.progressIndicator, GiteeApiRequests.CurrentUser.get(account.server))
               val names = GiteeApiPagesLoader
@@ -138,8 +132,7 @@ object GEShareProjectUtil {
       private lateinit var url: String
 
       override fun run(indicator: ProgressIndicator) {
-        val credentials = GECompatibilityUtil.getOrRequestCredentials(account, project) ?: return
-        val requestExecutor = GiteeApiRequestExecutor.Factory.getInstance().create(credentials)
+        val requestExecutor = GEApiRequestExecutorRegistry.getInstance().getOrRequestExecutor(account, project) ?: return
 
         // create Gitee repo (network)
         LOG.info("Creating Gitee repository")
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.gitee.authentication.GECredentials
+import com.gitee.authentication.accounts.GEAccountManager
+import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.ui.cloneDialog.GECloneDialogRepositoryListSnapshots
+import com.gitee.util.GECompatibilityUtil
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.annotations.RequiresBackgroundThread
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps one long-lived executor per account, so that all features share its credentials and token refresh.
+ *
+ * Credentials are read from the password safe once and then follow [GEAccountManager] updates,
+ * executors, cached responses and repository snapshots of removed accounts are dropped.
+ */
+@Service
+class GEApiRequestExecutorRegistry(private val cs: CoroutineScope) {
+
+  private val accountManager: GEAccountManager get() = service()
+
+  private val executors = ConcurrentHashMap<GiteeAccount, Entry>()
+  private val mutex = Mutex()
+
+  init {
+    cs.launch {
+      accountManager.accountsState.collect { accounts ->
+        for (account in executors.keys) {
+          if (account !in accounts) executors.remove(account)?.job?.cancel()
+        }
+        withContext(Dispatchers.IO) {
+          GiteeApiResponseCache.getInstance().retainScopes(
+            accounts.map { GiteeApiResponseCache.getAccountScope(it.id) } + GiteeApiResponseCache.ANONYMOUS_SCOPE)
+          GECloneDialogRepositoryListSnapshots.getInstance().retainAccounts(accounts.map { it.id })
+        }
+      }
+    }
+  }
+
+  /**
+   * @return executor for [account] or null if there are no credentials for it
+   */
+  suspend fun getExecutor(account: GiteeAccount): GiteeApiRequestExecutor? {
+    executors[account]?.let { return it.executor }
+
+    return mutex.withLock {
+      executors[account]?.let { return@withLock it.executor }
+
+      val credentials = accountManager.findCredentials(account) ?: return@withLock null
+      val executor = GiteeApiRequestExecutor.Factory.getInstance().create(account, credentials) { newCredentials ->
+        accountManager.updateAccount(account, newCredentials)
+      }
+      val job = cs.launch {
+        accountManager.getCredentialsFlow(account).collect { newCredentials ->
+          when {
+            newCredentials == null -> executors.remove(account)?.job?.cancel()
+            newCredentials.accessToken != executor.credentials.accessToken -> executor.credentials = newCredentials
+          }
+        }
+      }
+      executors[account] = Entry(executor, job)
+      executor
+    }
+  }
+
+  /**
+   * Current credentials of [account], the password safe is read only when there is no executor for it yet
+   */
+  suspend fun getCredentials(account: GiteeAccount): GECredentials? {
+    getExecutor(account) ?: return null
+    return executors[account]?.executor?.credentials
+  }
+
+  @RequiresBackgroundThread
+  fun findExecutor(account: GiteeAccount): GiteeApiRequestExecutor? = runBlocking { getExecutor(account) }
+
+  /**
+   * Same as [findExecutor], but asks the user to log in again if there are no credentials for [account]
+   */
+  @RequiresBackgroundThread
+  fun getOrRequestExecutor(account: GiteeAccount, project: Project): GiteeApiRequestExecutor? {
+    findExecutor(account)?.let { return it }
+
+    val credentials = GECompatibilityUtil.getOrRequestCredentials(account, project) ?: return null
+    return findExecutor(account) ?: GiteeApiRequestExecutor.Factory.getInstance().create(credentials)
+  }
+
+  private class Entry(val executor: GiteeApiRequestExecutor.WithCreateOrUpdateCredentialsAuth, val job: Job)
+
+  companion object {
+    @JvmStatic
+    fun getInstance(): GEApiRequestExecutorRegistry = service()
+  }
+}
@@ -18,6 +18,7 @@ package com.gitee.api
 import com.fasterxml.jackson.annotation.JsonAutoDetect
 import com.fasterxml.jackson.annotation.JsonInclude
 import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
 import com.fasterxml.jackson.databind.*
 import com.fasterxml.jackson.databind.introspect.VisibilityChecker
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
@@ -90,6 +91,29 @@ object GiteeApiContentHelper {
     return readJson(reader, jackson.typeFactory.constructCollectionType(List::class.java, parameterClass))
   }
 
+  /**
+   * Decodes JSON array elements one by one and passes each of them to [itemConsumer] as soon as it is read,
+   * so the whole list is never materialized
+   */
+  @JvmStatic
+  @Throws(GiteeJsonException::class)
+  fun <T> readJsonArray(reader: Reader, itemClass: Class<T>, itemConsumer: (T) -> Unit) {
+    try {
+      jackson.factory.createParser(reader).use { parser ->
+        if (parser.nextToken() != JsonToken.START_ARRAY) throw GiteeJsonException("Can't parse Gitee response: array expected")
+
+        val itemReader = jackson.readerFor(itemClass)
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          if (parser.currentToken == null) throw GiteeJsonException("Can't parse Gitee response: unexpected end of array")
+          itemConsumer(itemReader.readValue<T>(parser))
+        }
+      }
+    }
+    catch (e: JsonProcessingException) {
+      throw GiteeJsonException("Can't parse Gitee response", e)
+    }
+  }
+
   @Throws(GiteeJsonException::class)
   private fun <T> readJson(reader: Reader, type: JavaType, gqlNaming: Boolean = false): T {
     try {
@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.intellij.execution.process.ProcessIOExecutorService
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Computable
+import com.intellij.openapi.util.ThrowableComputable
+import com.intellij.util.io.DigestUtil
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.function.Supplier
+
+/**
+ * Shares a single execution of an idempotent request between all callers that ask for the same key while it is in flight.
+ *
+ * The request runs on a pooled thread under its own indicator. Every caller waits with its own [ProgressIndicator]
+ * and may be cancelled independently, the request itself is cancelled only after all callers have left.
+ */
+@Service
+class GiteeApiInFlightRequests {
+
+  private val inFlight = ConcurrentHashMap<String, Flight>()
+
+  @Throws(ProcessCanceledException::class)
+  fun <T> execute(key: String, indicator: ProgressIndicator, onJoined: () -> Unit = {}, task: (ProgressIndicator) -> T): T {
+    indicator.checkCanceled()
+
+    var flight: Flight
+    do {
+      flight = inFlight.computeIfAbsent(key) { Flight() }
+    }
+    while (!flight.join())
+
+    if (flight.start()) {
+      val priority = GiteeApiRateLimiter.currentPriority()
+      CompletableFuture.supplyAsync(Supplier {
+        GiteeApiRateLimiter.computeWithPriority(priority, ThrowableComputable<T, Exception> {
+          ProgressManager.getInstance().runProcess(Computable { task(flight.indicator) }, flight.indicator)
+        })
+      }, ProcessIOExecutorService.INSTANCE).whenComplete { result, error ->
+        flight.close()
+        inFlight.remove(key, flight)
+        if (error != null) flight.future.completeExceptionally((error as? CompletionException)?.cause ?: error)
+        else flight.future.complete(result)
+      }
+    }
+    else onJoined()
+
+    try {
+      @Suppress("UNCHECKED_CAST")
+      return await(flight.future, indicator) as T
+    }
+    finally {
+      if (flight.leave()) inFlight.remove(key, flight)
+    }
+  }
+
+  private fun await(future: CompletableFuture<Any?>, indicator: ProgressIndicator): Any? {
+    while (true) {
+      indicator.checkCanceled()
+      try {
+        return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+      }
+      catch (e: TimeoutException) {
+        continue
+      }
+      catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+  }
+
+  private class Flight {
+    val indicator = EmptyProgressIndicator()
+    val future = CompletableFuture<Any?>()
+
+    private var started = false
+    private var closed = false
+    private var waiters = 0
+
+    @Synchronized
+    fun join(): Boolean {
+      if (closed) return false
+      waiters++
+      return true
+    }
+
+    @Synchronized
+    fun start(): Boolean {
+      if (started) return false
+      started = true
+      return true
+    }
+
+    /**
+     * @return true if the last waiter has left and the request was cancelled
+     */
+    @Synchronized
+    fun leave(): Boolean {
+      waiters--
+      if (waiters > 0 || closed) return false
+      closed = true
+      indicator.cancel()
+      return true
+    }
+
+    @Synchronized
+    fun close() {
+      closed = true
+    }
+  }
+
+  companion object {
+    private const val AWAIT_TIMEOUT_MS = 50L
+
+    @JvmStatic
+    fun getInstance(): GiteeApiInFlightRequests = service()
+
+    /**
+     * Requests are the same if they are of the same class, so the results are of the same type,
+     * and are sent with the same url, authorization and headers
+     */
+    fun getKey(request: GiteeApiRequest<*>, authorization: String?): String {
+      val headers = request.additionalHeaders.toSortedMap().entries.joinToString("\n") { "${it.key}: ${it.value}" }
+      return DigestUtil.sha256Hex(
+        "${request.javaClass.name}\n${authorization.orEmpty()}\n${request.acceptMimeType.orEmpty()}\n${request.url}\n$headers".toByteArray())
+    }
+  }
+}
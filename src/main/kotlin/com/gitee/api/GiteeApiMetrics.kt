@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.gitee.i18n.GiteeBundle
+import com.intellij.openapi.actionSystem.ActionUpdateThread
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.ide.CopyPasteManager
+import com.intellij.openapi.project.DumbAwareAction
+import com.intellij.openapi.ui.Messages
+import java.awt.datatransfer.StringSelection
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Counts API requests made by the plugin.
+ *
+ * Requests are grouped by operation name, HTTP method, status and server, each group keeps a latency histogram
+ * and the number of response bytes. Retries, token refreshes, rate limit hits and coalesced requests are counted per server.
+ */
+@Service
+class GiteeApiMetrics {
+
+  private val requests = ConcurrentHashMap<RequestKey, RequestStats>()
+  private val events = ConcurrentHashMap<Pair<String, Event>, AtomicLong>()
+  private val since = System.currentTimeMillis()
+
+  fun startSample(request: GiteeApiRequest<*>): Sample =
+    Sample(request.operationName ?: UNNAMED_OPERATION, getMethod(request), getServer(request.url))
+
+  fun record(sample: Sample) {
+    val latency = (System.nanoTime() - sample.startNanos) / 1_000_000
+    requests.computeIfAbsent(RequestKey(sample.operation, sample.method, sample.statusCode, sample.server)) { RequestStats() }
+      .add(latency, sample.responseSize)
+  }
+
+  fun recordEvent(url: String, event: Event) {
+    events.computeIfAbsent(getServer(url) to event) { AtomicLong() }.incrementAndGet()
+  }
+
+  fun getSummary(): String {
+    val sb = StringBuilder()
+    val elapsedSec = (System.currentTimeMillis() - since) / 1000
+    sb.append("Gitee API requests over the last ${elapsedSec}s\n\n")
+    sb.append(String.format("%-40s %-6s %-6s %-20s %7s %9s %7s %7s %7s %12s\n",
+                            "operation", "method", "status", "server", "count", "avg ms", "p50", "p90", "p99", "bytes"))
+
+    val sorted = requests.entries.sortedWith(compareByDescending<Map.Entry<RequestKey, RequestStats>> { it.value.count.get() }
+                                               .thenBy { it.key.operation })
+    for ((key, stats) in sorted) {
+      val count = stats.count.get()
+      sb.append(String.format("%-40s %-6s %-6s %-20s %7d %9d %7s %7s %7s %12d\n",
+                              key.operation.take(40), key.method, if (key.status == 0) "error" else key.status.toString(), key.server,
+                              count, if (count > 0) stats.totalLatency.get() / count else 0,
+                              stats.percentile(0.5), stats.percentile(0.9), stats.percentile(0.99), stats.bytes.get()))
+    }
+
+    if (events.isNotEmpty()) {
+      sb.append("\n")
+      for ((key, counter) in events.entries.sortedWith(compareBy({ it.key.first }, { it.key.second }))) {
+        sb.append(String.format("%-20s %-20s %7d\n", key.first, key.second.name.lowercase(), counter.get()))
+      }
+    }
+    return sb.toString()
+  }
+
+  class Sample internal constructor(val operation: String, val method: String, val server: String) {
+    internal val startNanos = System.nanoTime()
+    var statusCode = 0
+    var responseSize = 0L
+  }
+
+  enum class Event {
+    RETRY, RATE_LIMIT_HIT, TOKEN_REFRESH, COALESCED
+  }
+
+  private data class RequestKey(val operation: String, val method: String, val status: Int, val server: String)
+
+  private class RequestStats {
+    val count = AtomicLong()
+    val totalLatency = AtomicLong()
+    val bytes = AtomicLong()
+    val histogram = AtomicLongArray(LATENCY_BUCKETS.size + 1)
+
+    fun add(latency: Long, size: Long) {
+      count.incrementAndGet()
+      totalLatency.addAndGet(latency)
+      bytes.addAndGet(size)
+      val bucket = LATENCY_BUCKETS.indexOfFirst { latency <= it }
+      histogram.incrementAndGet(if (bucket < 0) LATENCY_BUCKETS.size else bucket)
+    }
+
+    /**
+     * @return upper bound of the histogram bucket which contains the percentile
+     */
+    fun percentile(fraction: Double): String {
+      val total = count.get()
+      if (total == 0L) return "-"
+      var seen = 0L
+      for (i in 0 until histogram.length()) {
+        seen += histogram.get(i)
+        if (seen >= total * fraction) return if (i < LATENCY_BUCKETS.size) "<=${LATENCY_BUCKETS[i]}" else ">${LATENCY_BUCKETS.last()}"
+      }
+      return ">${LATENCY_BUCKETS.last()}"
+    }
+  }
+
+  class DumpAction : DumbAwareAction() {
+
+    override fun getActionUpdateThread() = ActionUpdateThread.BGT
+
+    override fun actionPerformed(e: AnActionEvent) {
+      val summary = getInstance().getSummary()
+      LOG.info(summary)
+      CopyPasteManager.getInstance().setContents(StringSelection(summary))
+      Messages.showInfoMessage(e.project, GiteeBundle.message("api.metrics.dumped"),
+                               GiteeBundle.message("action.Gitee.Dump.Api.Metrics.text"))
+    }
+  }
+
+  companion object {
+    private val LOG = logger<GiteeApiMetrics>()
+
+    private const val UNNAMED_OPERATION = "<unnamed>"
+    private val LATENCY_BUCKETS = longArrayOf(50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000)
+
+    private fun getServer(url: String) = url.substringAfter("://").substringBefore('/')
+
+    private fun getMethod(request: GiteeApiRequest<*>) = when (request) {
+      is GiteeApiRequest.Get -> "GET"
+      is GiteeApiRequest.Head -> "HEAD"
+      is GiteeApiRequest.Post -> "POST"
+      is GiteeApiRequest.Put -> "PUT"
+      is GiteeApiRequest.Patch -> "PATCH"
+      is GiteeApiRequest.Delete -> "DELETE"
+      else -> request.javaClass.simpleName
+    }
+
+    @JvmStatic
+    fun getInstance(): GiteeApiMetrics = service()
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.google.common.cache.CacheBuilder
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.util.ThrowableComputable
+import com.intellij.util.io.DigestUtil
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Token bucket per server and account which delays requests instead of letting them hit the API rate limit.
+ *
+ * The refill rate is learned from `X-RateLimit-*` / `Retry-After` headers when the server sends them
+ * and is halved on every "rate limit exceeded" response, recovering gradually on success.
+ * A share of the bucket is reserved for [Priority.INTERACTIVE] requests, so background work
+ * (see [computeWithPriority]) only proceeds when interactive calls are not waiting.
+ */
+@Service
+class GiteeApiRateLimiter {
+
+  // idle buckets are dropped, keys of executors without an account change with every token
+  private val buckets = CacheBuilder.newBuilder()
+    .expireAfterAccess(BUCKET_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+    .build<String, Bucket>()
+
+  /**
+   * @param accountId account of the executor, the authorization is used only for executors which are not bound to an account
+   */
+  fun getKey(url: String, accountId: String?, authorization: String?): String {
+    val server = url.substringAfter("://").substringBefore('/')
+    val identity = accountId ?: DigestUtil.sha256Hex(authorization.orEmpty().toByteArray())
+    return "$server#$identity"
+  }
+
+  /**
+   * Blocks until the bucket for [key] has a token for the current [Priority]
+   */
+  @Throws(ProcessCanceledException::class)
+  fun acquire(key: String, indicator: ProgressIndicator) {
+    val bucket = buckets.get(key) { Bucket() }
+    val priority = currentPriority()
+    var waiting = false
+    try {
+      while (true) {
+        indicator.checkCanceled()
+        val waitMs = synchronized(bucket) { bucket.tryAcquire(priority, System.currentTimeMillis()) }
+        if (waitMs <= 0) return
+
+        if (!waiting) {
+          waiting = true
+          if (priority == Priority.INTERACTIVE) synchronized(bucket) { bucket.interactiveWaiters++ }
+          LOG.debug("Rate limiter: delaying $priority request to ${key.substringBefore('#')} for ${waitMs}ms")
+        }
+        sleep(min(waitMs, POLL_INTERVAL_MS))
+      }
+    }
+    finally {
+      if (waiting && priority == Priority.INTERACTIVE) synchronized(bucket) { bucket.interactiveWaiters-- }
+    }
+  }
+
+  /**
+   * Learns the budget from the response headers
+   */
+  fun onResponse(key: String, statusCode: Int, headerProvider: (String) -> String?) {
+    val bucket = buckets.getIfPresent(key) ?: return
+    val limit = headerProvider(HEADER_LIMIT)?.toIntOrNull()
+    val remaining = headerProvider(HEADER_REMAINING)?.toIntOrNull()
+    val reset = headerProvider(HEADER_RESET)?.toLongOrNull()
+    val retryAfter = headerProvider(HEADER_RETRY_AFTER)?.toLongOrNull()
+    val now = System.currentTimeMillis()
+
+    synchronized(bucket) {
+      bucket.refill(now)
+      if (limit != null && limit > 0) bucket.capacity = min(limit.toDouble(), DEFAULT_CAPACITY)
+      if (remaining != null) {
+        bucket.tokens = min(bucket.tokens, remaining.toDouble())
+        if (reset != null) {
+          val resetMs = if (reset > RESET_EPOCH_THRESHOLD) reset * 1000 else now + reset * 1000
+          bucket.refillPerMs = max(remaining.toDouble(), 1.0) / max(resetMs - now, 1000L)
+          bucket.learned = true
+          if (remaining == 0) bucket.blockedUntil = max(bucket.blockedUntil, resetMs)
+        }
+      }
+      if (retryAfter != null) bucket.blockedUntil = max(bucket.blockedUntil, now + retryAfter * 1000)
+
+      if (statusCode < 400) {
+        bucket.failures = 0
+        if (!bucket.learned) bucket.refillPerMs = min(DEFAULT_REFILL_PER_MS, bucket.refillPerMs + DEFAULT_REFILL_PER_MS / 10)
+      }
+    }
+  }
+
+  /**
+   * Backs off after the server reported the limit as exceeded
+   *
+   * @return false if the request should not be retried
+   */
+  fun onRateLimitExceeded(key: String, attempt: Int): Boolean {
+    val bucket = buckets.get(key) { Bucket() }
+    val now = System.currentTimeMillis()
+    val waitMs = synchronized(bucket) { bucket.backOff(now) }
+    LOG.info("Rate limit exceeded for ${key.substringBefore('#')}, backing off for ${waitMs}ms")
+    return attempt < MAX_RETRIES && waitMs <= MAX_WAIT_MS
+  }
+
+  private fun sleep(millis: Long) {
+    try {
+      Thread.sleep(millis)
+    }
+    catch (e: InterruptedException) {
+      throw ProcessCanceledException(e)
+    }
+  }
+
+  internal class Bucket(var lastRefill: Long = System.currentTimeMillis()) {
+    var capacity = DEFAULT_CAPACITY
+    var tokens = DEFAULT_CAPACITY
+    var refillPerMs = DEFAULT_REFILL_PER_MS
+    var blockedUntil = 0L
+    var failures = 0
+    var learned = false
+    var interactiveWaiters = 0
+
+    fun refill(now: Long) {
+      tokens = min(capacity, tokens + (now - lastRefill) * refillPerMs)
+      lastRefill = now
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise an estimated time to wait
+     */
+    fun tryAcquire(priority: Priority, now: Long): Long {
+      refill(now)
+      if (now < blockedUntil) return blockedUntil - now
+
+      val required = if (priority == Priority.BACKGROUND) {
+        if (interactiveWaiters > 0) return POLL_INTERVAL_MS
+        1 + capacity * BACKGROUND_RESERVE
+      }
+      else 1.0
+      if (tokens >= required) {
+        tokens--
+        return 0
+      }
+      return max(1L, ceil((required - tokens) / refillPerMs).toLong())
+    }
+
+    /**
+     * Empties the bucket, halves the refill rate and blocks it for an exponentially growing jittered time
+     *
+     * @return time until the bucket is unblocked
+     */
+    fun backOff(now: Long): Long {
+      failures++
+      tokens = 0.0
+      refillPerMs = max(refillPerMs / 2, MIN_REFILL_PER_MS)
+
+      val backoff = min(MAX_BACKOFF_MS, BASE_BACKOFF_MS shl min(failures - 1, 16))
+      val jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1)
+      blockedUntil = max(blockedUntil, now + jittered)
+      return blockedUntil - now
+    }
+  }
+
+  enum class Priority {
+    INTERACTIVE, BACKGROUND
+  }
+
+  companion object {
+    private val LOG = logger<GiteeApiRateLimiter>()
+
+    private const val HEADER_LIMIT = "X-RateLimit-Limit"
+    private const val HEADER_REMAINING = "X-RateLimit-Remaining"
+    private const val HEADER_RESET = "X-RateLimit-Reset"
+    private const val HEADER_RETRY_AFTER = "Retry-After"
+    // values above are seconds since epoch, below - seconds until reset
+    private const val RESET_EPOCH_THRESHOLD = 1_000_000_000L
+
+    private const val DEFAULT_CAPACITY = 30.0
+    private const val DEFAULT_REFILL_PER_MS = 10.0 / 1000
+    private const val MIN_REFILL_PER_MS = 1.0 / 60_000
+    private const val BACKGROUND_RESERVE = 0.3
+
+    private const val BASE_BACKOFF_MS = 1000L
+    private const val MAX_BACKOFF_MS = 60_000L
+    private const val MAX_WAIT_MS = 5 * 60_000L
+    private const val MAX_RETRIES = 5
+    private const val POLL_INTERVAL_MS = 100L
+    private const val BUCKET_EXPIRATION_MINUTES = 60L
+
+    private val currentPriority = ThreadLocal.withInitial { Priority.INTERACTIVE }
+
+    @JvmStatic
+    fun currentPriority(): Priority = currentPriority.get()
+
+    /**
+     * Runs [computable] with requests executed on the current thread attributed to [priority]
+     */
+    @JvmStatic
+    @Throws(Exception::class)
+    fun <T, E : Exception> computeWithPriority(priority: Priority, computable: ThrowableComputable<T, E>): T {
+      val previous = currentPriority.get()
+      currentPriority.set(priority)
+      try {
+        return computable.compute()
+      }
+      finally {
+        currentPriority.set(previous)
+      }
+    }
+
+    @JvmStatic
+    fun getInstance(): GiteeApiRateLimiter = service()
+  }
+}
@@ -33,6 +33,11 @@ sealed class GiteeApiRequest<out T>(val url: String) {
 
   open val tokenHeaderType = GiteeApiRequestExecutor.TokenHeaderType.TOKEN
 
+  /**
+   * Whether a GET response may be kept in [GiteeApiResponseCache], disabled for requests which store results on their own
+   */
+  open val useResponseCache = true
+
   protected val headers = mutableMapOf<String, String>()
   val additionalHeaders: Map<String, String>
     get() = headers
@@ -96,6 +101,32 @@ sealed class GiteeApiRequest<out T>(val url: String) {
         return GiteeResponsePage.parseFromHeaderPage(parseJsonList(response, clazz), url,
           response.findHeader(GiteeResponsePage.HEADER_TOTAL_PAGE)?.toInt())
       }
+
+      /**
+       * @return one-off copy of this request which hands page items to [itemConsumer] while the body is being read,
+       * [GiteeResponsePage.items] of its result is empty
+       */
+      fun streaming(itemConsumer: (T) -> Unit): Get<GiteeResponsePage<T>> = Streaming(this, clazz, itemConsumer)
+
+      /**
+       * Never shared with other callers or cached, they would get a page without items
+       */
+      internal class Streaming<T>(source: JsonPage<T>, private val clazz: Class<T>, private val itemConsumer: (T) -> Unit)
+        : Get<GiteeResponsePage<T>>(source.url, source.acceptMimeType) {
+
+        override val useResponseCache = false
+
+        init {
+          operationName = source.operationName
+          headers.putAll(source.additionalHeaders)
+        }
+
+        override fun extractResult(response: GiteeApiResponse): GiteeResponsePage<T> {
+          response.readBody({ GiteeApiContentHelper.readJsonArray(it, clazz, itemConsumer) })
+          return GiteeResponsePage.parseFromHeaderPage(emptyList(), url,
+            response.findHeader(GiteeResponsePage.HEADER_TOTAL_PAGE)?.toInt())
+        }
+      }
     }
 
     open class JsonSearchPage<T>(url: String,
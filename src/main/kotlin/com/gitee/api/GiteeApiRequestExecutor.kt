@@ -15,19 +15,21 @@
  */
 package com.gitee.api
 
-import com.gitee.api.GiteeApiRequestExecutor.Factory.Companion.getInstance
 import com.gitee.api.GiteeServerPath.Companion.from
 import com.gitee.api.data.GiteeErrorMessage
 import com.gitee.authentication.GECredentials
-import com.gitee.authentication.util.GiteeCredentialsCreator
+import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.authentication.util.GECredentialsRefreshCoordinator
 import com.gitee.exceptions.*
 import com.gitee.util.GiteeSettings
+import com.google.common.io.CountingInputStream
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.progress.*
 import com.intellij.util.EventDispatcher
 import com.intellij.util.ThrowableConvertor
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.concurrency.annotations.RequiresBackgroundThread
 import com.intellij.util.io.HttpRequests
 import com.intellij.util.io.HttpSecurityUtil
@@ -35,12 +37,16 @@ import com.intellij.util.io.RequestBuilder
 import kotlinx.coroutines.runBlocking
 import org.jetbrains.annotations.CalledInAny
 import org.jetbrains.annotations.TestOnly
+import java.io.FilterInputStream
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.io.Reader
+import java.lang.ref.WeakReference
 import java.net.HttpURLConnection
 import java.util.*
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 import java.util.zip.GZIPInputStream
 
 
@@ -74,8 +80,9 @@ sealed class GiteeApiRequestExecutor {
       }
     }, disposable)
 
-  class WithCreateOrUpdateCredentialsAuth internal constructor(giteeSettings: GiteeSettings, credentials: GECredentials,
-                                                               private val authDataChangedSupplier: suspend (credentials: GECredentials) -> Unit) : Base(giteeSettings) {
+  class WithCreateOrUpdateCredentialsAuth internal constructor(giteeSettings: GiteeSettings, accountId: String?, credentials: GECredentials,
+                                                               private val authDataChangedSupplier: suspend (credentials: GECredentials) -> Unit)
+    : Base(giteeSettings, accountId) {
 
     @Volatile
     internal var credentials: GECredentials = credentials
@@ -84,6 +91,11 @@ sealed class GiteeApiRequestExecutor {
         authDataChangedEventDispatcher.multicaster.authDataChanged()
       }
 
+    @Volatile
+    private var server: GiteeServerPath? = null
+    @Volatile
+    private var scheduledRefresh: ScheduledFuture<*>? = null
+
     @Throws(IOException::class, ProcessCanceledException::class)
     override fun <T> execute(indicator: ProgressIndicator, request: GiteeApiRequest<T>): T {
       if(service<GERequestExecutorBreaker>().isRequestsShouldFail) error(
@@ -91,41 +103,77 @@ sealed class GiteeApiRequestExecutor {
       )
       indicator.checkCanceled()
 
-      return try {
-        createRequestBuilder(request)
-          .tuner { connection ->
-            request.additionalHeaders.forEach(connection::addRequestProperty)
-            connection.addRequestProperty(HttpSecurityUtil.AUTHORIZATION_HEADER_NAME, "token ${credentials.accessToken}")
-          }
-          .execute(request, indicator)
+      val server = server ?: from(request.url.substringBefore('?')).also { server = it }
+      ensureFreshCredentials(server, indicator)
 
+      val usedCredentials = credentials
+      return try {
+        doExecute(request, indicator, "token ${usedCredentials.accessToken}")
       } catch (e: GiteeAccessTokenExpiredException) {
-        if (credentials.refreshToken == "") throw e
+        if (usedCredentials.refreshToken == "") throw e
 
-        // 这里需要重新判断下是否过期, 后台运行refresh_token可能被多次刷新
-        if(!credentials.isAccessTokenValid()) {
-          try {
-            GiteeCredentialsCreator(
-              from(request.url.substringBefore('?')),
-              getInstance().create(),
-            ).refresh(credentials.refreshToken)
-          } catch (ie: GiteeAuthenticationException) {
-            null
-          }?.let {
-            credentials = it
-
-            runBlocking {
-              authDataChangedSupplier(credentials)
-            }
-          }
-        }
+        // token could have been refreshed by a concurrent request already
+        if (credentials === usedCredentials) refreshCredentials(server, usedCredentials, indicator)
+
+        return doExecute(request, indicator, "token ${credentials.accessToken}")
+      }
+    }
+
+    /**
+     * Refreshes the token synchronously if it has expired,
+     * starts a background refresh if it is about to expire or schedules one otherwise
+     */
+    private fun ensureFreshCredentials(server: GiteeServerPath, indicator: ProgressIndicator) {
+      val current = credentials
+      if (current.refreshToken == "" || current.expiresIn <= 0) return
+
+      val expirationTime = GECredentialsRefreshCoordinator.getExpirationTime(current)
+      val delay = expirationTime - GECredentialsRefreshCoordinator.REFRESH_MARGIN_MS - System.currentTimeMillis()
+      when {
+        delay > 0 -> scheduleRefresh(server, current, delay)
+        System.currentTimeMillis() < expirationTime -> refreshInBackground(server, current)
+        else -> refreshCredentials(server, current, indicator)
+      }
+    }
 
-        return createRequestBuilder(request)
-          .tuner { connection ->
-            request.additionalHeaders.forEach(connection::addRequestProperty)
-            connection.addRequestProperty(HttpSecurityUtil.AUTHORIZATION_HEADER_NAME, "token ${credentials.accessToken}")
+    private fun scheduleRefresh(server: GiteeServerPath, current: GECredentials, delay: Long) {
+      if (scheduledRefresh != null) return
+      synchronized(this) {
+        if (scheduledRefresh != null) return
+        // the executor should not be kept alive only to refresh its token
+        val executorRef = WeakReference(this)
+        scheduledRefresh = AppExecutorUtil.getAppScheduledExecutorService().schedule(Runnable {
+          executorRef.get()?.let {
+            it.scheduledRefresh = null
+            if (it.credentials === current) it.refreshInBackground(server, current)
           }
-          .execute(request, indicator)
+        }, delay, TimeUnit.MILLISECONDS)
+      }
+    }
+
+    private fun refreshInBackground(server: GiteeServerPath, current: GECredentials) {
+      GECredentialsRefreshCoordinator.getInstance().refresh(server, current).whenComplete { newCredentials, error ->
+        if (error != null) LOG.info("Failed to refresh access token in background", error)
+        else if (newCredentials != null) updateCredentials(server, current, newCredentials)
+      }
+    }
+
+    @Throws(IOException::class)
+    private fun refreshCredentials(server: GiteeServerPath, current: GECredentials, indicator: ProgressIndicator) {
+      val coordinator = GECredentialsRefreshCoordinator.getInstance()
+      coordinator.await(coordinator.refresh(server, current), indicator)?.let {
+        updateCredentials(server, current, it)
+      }
+    }
+
+    private fun updateCredentials(server: GiteeServerPath, current: GECredentials, newCredentials: GECredentials) {
+      synchronized(this) {
+        if (credentials !== current) return
+        credentials = newCredentials
+      }
+      metrics.recordEvent(server.toApiUrl(), GiteeApiMetrics.Event.TOKEN_REFRESH)
+      runBlocking {
+        authDataChangedSupplier(newCredentials)
       }
     }
   }
@@ -146,12 +194,7 @@ sealed class GiteeApiRequestExecutor {
       )
       indicator.checkCanceled()
 
-      return createRequestBuilder(request)
-        .tuner { connection ->
-          request.additionalHeaders.forEach(connection::addRequestProperty)
-          connection.addRequestProperty(HttpSecurityUtil.AUTHORIZATION_HEADER_NAME, "token ${credentials.accessToken}")
-        }
-        .execute(request, indicator)
+      return doExecute(request, indicator, "token ${credentials.accessToken}")
     }
   }
 
@@ -169,48 +212,81 @@ sealed class GiteeApiRequestExecutor {
       if (service<GERequestExecutorBreaker>().isRequestsShouldFail) error(
         "Request failure was triggered by user action. This a pretty long description of this failure that should resemble some long error which can go out of bounds.")
       indicator.checkCanceled()
-      return createRequestBuilder(request)
-        .tuner { connection ->
-          request.additionalHeaders.forEach(connection::addRequestProperty)
-          connection.addRequestProperty(HttpSecurityUtil.AUTHORIZATION_HEADER_NAME, "token $accessToken")
-        }
-        .execute(request, indicator)
+      return doExecute(request, indicator, "token $accessToken")
     }
   }
 
   class NoAuth internal constructor(giteeSettings: GiteeSettings) : Base(giteeSettings) {
     override fun <T> execute(indicator: ProgressIndicator, request: GiteeApiRequest<T>): T {
       indicator.checkCanceled()
-      return createRequestBuilder(request)
-        .tuner { connection ->
-          request.additionalHeaders.forEach(connection::addRequestProperty)
-        }
-        .execute(request, indicator)
+      return doExecute(request, indicator, null)
     }
   }
 
-  abstract class Base(private val giteeSettings: GiteeSettings) : GiteeApiRequestExecutor() {
+  /**
+   * @param accountId identity of the account the executor works for, responses are cached only for known accounts and anonymous requests
+   */
+  abstract class Base(private val giteeSettings: GiteeSettings, private val accountId: String? = null) : GiteeApiRequestExecutor() {
+
+    private val responseCache = GiteeApiResponseCache.getInstance()
+    private val rateLimiter = GiteeApiRateLimiter.getInstance()
+    private val inFlightRequests = GiteeApiInFlightRequests.getInstance()
+    protected val metrics = GiteeApiMetrics.getInstance()
+
+    /**
+     * Identical GET requests which are already in flight are not sent again, the caller waits for the running one instead
+     */
+    protected fun <T> doExecute(request: GiteeApiRequest<T>, indicator: ProgressIndicator, authorization: String?): T {
+      if (request !is GiteeApiRequest.Get || request is GiteeApiRequest.Get.JsonPage.Streaming<*>) {
+        return doExecuteWithRateLimit(request, indicator, authorization)
+      }
+      val key = GiteeApiInFlightRequests.getKey(request, authorization)
+      return inFlightRequests.execute(key, indicator,
+                                      { metrics.recordEvent(request.url, GiteeApiMetrics.Event.COALESCED) }) {
+        doExecuteWithRateLimit(request, it, authorization)
+      }
+    }
 
-    protected fun <T> RequestBuilder.execute(request: GiteeApiRequest<T>, indicator: ProgressIndicator): T {
-      indicator.checkCanceled()
-      try {
-        LOG.debug("Request: ${request.url} ${request.operationName} : Connecting")
-        return connect {
-          val connection = it.connection as HttpURLConnection
+    /**
+     * Waits for the per-account rate limiter and retries with backoff while the server reports the limit as exceeded
+     */
+    private fun <T> doExecuteWithRateLimit(request: GiteeApiRequest<T>, indicator: ProgressIndicator, authorization: String?): T {
+      val limiterKey = rateLimiter.getKey(request.url, accountId, authorization)
+      var attempt = 0
+      while (true) {
+        rateLimiter.acquire(limiterKey, indicator)
+        try {
+          return doExecute(request, indicator, authorization, limiterKey)
+        }
+        catch (e: GiteeRateLimitExceededException) {
+          metrics.recordEvent(request.url, GiteeApiMetrics.Event.RATE_LIMIT_HIT)
+          if (!rateLimiter.onRateLimitExceeded(limiterKey, attempt++)) throw e
+          metrics.recordEvent(request.url, GiteeApiMetrics.Event.RETRY)
+          LOG.debug("Request: ${request.url} ${request.operationName} : Rate limit exceeded, retrying")
+        }
+      }
+    }
 
-          if (request is GiteeApiRequest.WithBody) {
-            LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} with body:\n${request.body} : Connected")
-            request.body?.let { body -> it.write(body) }
-          } else {
-            LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} : Connected")
-          }
-          checkResponseCode(connection)
-          indicator.checkCanceled()
+    private fun <T> doExecute(request: GiteeApiRequest<T>, indicator: ProgressIndicator, authorization: String?, limiterKey: String): T {
+      val cacheKey = if (isCacheable(request)) getCacheScope(authorization)?.let { responseCache.getKey(it, request) } else null
+      val cachedEntry = cacheKey?.let(responseCache::get)
 
-          val result = request.extractResult(createResponse(it, indicator))
-          LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} : Result extracted")
+      val headers = LinkedHashMap(request.additionalHeaders)
+      authorization?.let { headers[HttpSecurityUtil.AUTHORIZATION_HEADER_NAME] = it }
+      cachedEntry?.eTag?.let { headers[GiteeApiResponseCache.HEADER_IF_NONE_MATCH] = it }
+      cachedEntry?.lastModified?.let { headers[GiteeApiResponseCache.HEADER_IF_MODIFIED_SINCE] = it }
 
-          result
+      indicator.checkCanceled()
+      val sample = metrics.startSample(request)
+      try {
+        LOG.debug("Request: ${request.url} ${request.operationName} : Connecting")
+        return if (giteeSettings.isHttp2Transport) {
+          executeWithHttpClient(request, indicator, headers, sample, limiterKey, cacheKey, cachedEntry)
+        }
+        else {
+          createRequestBuilder(request)
+            .tuner { connection -> headers.forEach(connection::addRequestProperty) }
+            .execute(request, indicator, sample, limiterKey, cacheKey, cachedEntry)
         }
       } catch (e: GiteeStatusCodeException) {
         @Suppress("UNCHECKED_CAST")
@@ -222,6 +298,94 @@ sealed class GiteeApiRequestExecutor {
           LOG.debug(errorText, e)
         }
         throw e
+      } finally {
+        metrics.record(sample)
+      }
+    }
+
+    private fun isCacheable(request: GiteeApiRequest<*>): Boolean =
+      request is GiteeApiRequest.Get && request.useResponseCache
+
+    /**
+     * Executors created for a bare token have no stable identity, the key would change with every token refresh
+     */
+    private fun getCacheScope(authorization: String?): String? = when {
+      accountId != null -> GiteeApiResponseCache.getAccountScope(accountId)
+      authorization == null -> GiteeApiResponseCache.ANONYMOUS_SCOPE
+      else -> null
+    }
+
+    private fun <T> RequestBuilder.execute(request: GiteeApiRequest<T>,
+                                           indicator: ProgressIndicator,
+                                           sample: GiteeApiMetrics.Sample,
+                                           limiterKey: String,
+                                           cacheKey: String?,
+                                           cachedEntry: GiteeApiResponseCache.Entry?): T {
+      return connect {
+        val connection = it.connection as HttpURLConnection
+
+        if (request is GiteeApiRequest.WithBody) {
+          LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} with body:\n${request.body} : Connected")
+          request.body?.let { body -> it.write(body) }
+        } else {
+          LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} : Connected")
+        }
+        sample.statusCode = connection.responseCode
+        rateLimiter.onResponse(limiterKey, connection.responseCode, connection::getHeaderField)
+        checkResponseCode(connection.requestMethod, connection.url.toString(), connection.responseCode, connection.responseMessage,
+                          connection.contentType) { getErrorText(connection) }
+        indicator.checkCanceled()
+
+        val response = getCachingResponse(connection.responseCode, cacheKey, cachedEntry,
+                                          { connection.headerFields },
+                                          { it.readBytes(indicator).also { bytes -> sample.responseSize = bytes.size.toLong() } })
+                       ?: createResponse(it, indicator, sample)
+        val result = request.extractResult(response)
+        LOG.debug("Request: ${connection.requestMethod} ${connection.url} ${connection.requestMethod} : Result extracted")
+
+        result
+      }
+    }
+
+    private fun <T> executeWithHttpClient(request: GiteeApiRequest<T>,
+                                          indicator: ProgressIndicator,
+                                          headers: Map<String, String>,
+                                          sample: GiteeApiMetrics.Sample,
+                                          limiterKey: String,
+                                          cacheKey: String?,
+                                          cachedEntry: GiteeApiResponseCache.Entry?): T {
+      val response = GiteeHttpClientTransport.getInstance().send(request, headers, giteeSettings.connectionTimeout, indicator)
+      val method = response.request().method()
+      val url = response.uri().toString()
+      val body = lazy { CountingInputStream(CancellableInputStream(GiteeHttpClientTransport.decodeBody(response), indicator)) }
+
+      try {
+        LOG.debug("Request: $method $url ${response.version()} : Connected")
+        sample.statusCode = response.statusCode()
+        rateLimiter.onResponse(limiterKey, response.statusCode()) { response.headers().firstValue(it).orElse(null) }
+        checkResponseCode(method, url, response.statusCode(), null, response.headers().firstValue("Content-Type").orElse(null)) {
+          InputStreamReader(body.value, Charsets.UTF_8).use { it.readText() }
+        }
+        indicator.checkCanceled()
+
+        val apiResponse = getCachingResponse(response.statusCode(), cacheKey, cachedEntry,
+                                             { response.headers().map() }, { body.value.readBytes() })
+                          ?: object : GiteeApiResponse {
+                            override fun findHeader(headerName: String): String? = response.headers().firstValue(headerName).orElse(null)
+
+                            override fun <R> readBody(converter: ThrowableConvertor<Reader, R, IOException>): R =
+                              converter.convert(InputStreamReader(body.value, Charsets.UTF_8))
+
+                            override fun <R> handleBody(converter: ThrowableConvertor<InputStream, R, IOException>): R =
+                              converter.convert(body.value)
+                          }
+        val result = request.extractResult(apiResponse)
+        LOG.debug("Request: $method $url : Result extracted")
+        return result
+      }
+      finally {
+        if (body.isInitialized()) sample.responseSize = body.value.count
+        response.body().close()
       }
     }
 
@@ -238,25 +402,26 @@ sealed class GiteeApiRequestExecutor {
         else -> throw UnsupportedOperationException("${request.javaClass} is not supported")
       }
         .connectTimeout(giteeSettings.connectionTimeout)
-        .userAgent("Intellij IDEA Gitee Plugin")
+        .userAgent(GiteeHttpClientTransport.USER_AGENT)
         .throwStatusCodeException(false)
         .forceHttps(true)
         .accept(request.acceptMimeType)
     }
 
     @Throws(IOException::class)
-    private fun checkResponseCode(connection: HttpURLConnection) {
-      if (connection.responseCode < 400) return
+    private fun checkResponseCode(method: String, url: String, statusCode: Int, statusMessage: String?, contentType: String?,
+                                  errorTextProvider: () -> String) {
+      if (statusCode < 400) return
 
-      val statusLine = "${connection.responseCode} ${connection.responseMessage}"
-      val errorText = getErrorText(connection)
+      val statusLine = if (statusMessage != null) "$statusCode $statusMessage" else statusCode.toString()
+      val errorText = errorTextProvider()
 
-      LOG.debug("Request: ${connection.requestMethod} ${connection.url}: Error $statusLine body:\n $errorText")
+      LOG.debug("Request: $method $url: Error $statusLine body:\n $errorText")
 
-      val jsonError = getJsonError(connection, errorText)
-      jsonError ?: LOG.debug("Request: ${connection.requestMethod} ${connection.url} : Unable to parse JSON error")
+      val jsonError = getJsonError(contentType, errorText)
+      jsonError ?: LOG.debug("Request: $method $url : Unable to parse JSON error")
 
-      throw when (connection.responseCode) {
+      throw when (statusCode) {
         HttpURLConnection.HTTP_NOT_FOUND,
         HttpURLConnection.HTTP_UNAUTHORIZED,
         HttpURLConnection.HTTP_PAYMENT_REQUIRED,
@@ -274,18 +439,19 @@ sealed class GiteeApiRequestExecutor {
             jsonError?.containsReasonMessage("Access token does not exist") == true ->
               GiteeAccessTokenExpiredException(jsonError.message)
             jsonError?.containsErrorMessage("invalid_grant") == true ->
-              GiteeAuthenticationException(jsonError.presentableError)
-            statusLine.contains("401 Unauthorized") ->
-              GiteeAuthenticationException(statusLine)
+              GiteeAuthenticationException(jsonError.presentableError, statusCode)
+            statusCode == HttpURLConnection.HTTP_UNAUTHORIZED ->
+              GiteeAuthenticationException(statusLine, statusCode)
             else ->
-              GiteeAuthenticationException("Request response: " + (jsonError?.presentableError?: if (errorText != "") errorText else statusLine))
+              GiteeAuthenticationException("Request response: " + (jsonError?.presentableError?: if (errorText != "") errorText else statusLine),
+                                           statusCode)
           }
         }
         else -> {
           if (jsonError != null) {
-            GiteeStatusCodeException("$statusLine - ${jsonError.presentableError}", jsonError, connection.responseCode)
+            GiteeStatusCodeException("$statusLine - ${jsonError.presentableError}", jsonError, statusCode)
           } else {
-            GiteeStatusCodeException("$statusLine - $errorText", connection.responseCode)
+            GiteeStatusCodeException("$statusLine - $errorText", statusCode)
           }
         }
       }
@@ -297,8 +463,8 @@ sealed class GiteeApiRequestExecutor {
       return InputStreamReader(stream, Charsets.UTF_8).use { it.readText() }
     }
 
-    private fun getJsonError(connection: HttpURLConnection, errorText: String): GiteeErrorMessage? {
-      if (!connection.contentType.startsWith(GiteeApiContentHelper.JSON_MIME_TYPE)) return null
+    private fun getJsonError(contentType: String?, errorText: String): GiteeErrorMessage? {
+      if (contentType?.startsWith(GiteeApiContentHelper.JSON_MIME_TYPE) != true) return null
       return try {
         return GiteeApiContentHelper.fromJson(errorText)
       } catch (jse: GiteeJsonException) {
@@ -307,16 +473,50 @@ sealed class GiteeApiRequestExecutor {
       }
     }
 
-    private fun createResponse(request: HttpRequests.Request, indicator: ProgressIndicator): GiteeApiResponse {
+    /**
+     * Replays the cached body on `304 Not Modified` and stores successful responses which carry validators.
+     *
+     * @return null if the response should be read directly
+     */
+    private fun getCachingResponse(statusCode: Int,
+                                   cacheKey: String?,
+                                   cachedEntry: GiteeApiResponseCache.Entry?,
+                                   headerFields: () -> Map<String?, List<String>?>,
+                                   bodyReader: () -> ByteArray): GiteeApiResponse? {
+      if (cachedEntry != null && statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        LOG.debug("Request: Not modified, using cached response")
+        return cachedEntry.toResponse()
+      }
+      if (cacheKey == null || statusCode != HttpURLConnection.HTTP_OK) return null
+
+      val headers = headerFields()
+        .filter { (name, values) -> name != null && !name.equals("Set-Cookie", true) && !values.isNullOrEmpty() }
+        .map { (name, values) -> name!! to values!!.last() }
+        .toMap()
+      val eTag = headers.entries.find { it.key.equals(GiteeApiResponseCache.HEADER_ETAG, true) }?.value
+      val lastModified = headers.entries.find { it.key.equals(GiteeApiResponseCache.HEADER_LAST_MODIFIED, true) }?.value
+      if (eTag == null && lastModified == null) return null
+
+      val entry = GiteeApiResponseCache.Entry(eTag, lastModified, headers, bodyReader())
+      responseCache.put(cacheKey, entry)
+      return entry.toResponse()
+    }
+
+    private fun createResponse(request: HttpRequests.Request, indicator: ProgressIndicator, sample: GiteeApiMetrics.Sample): GiteeApiResponse {
       return object : GiteeApiResponse {
         override fun findHeader(headerName: String): String? = request.connection.getHeaderField(headerName)
 
-        override fun <T> readBody(converter: ThrowableConvertor<Reader, T, IOException>): T = request.getReader(indicator).use {
-          converter.convert(it)
-        }
+        override fun <T> readBody(converter: ThrowableConvertor<Reader, T, IOException>): T =
+          handleBody { InputStreamReader(it, Charsets.UTF_8).use(converter::convert) }
 
-        override fun <T> handleBody(converter: ThrowableConvertor<InputStream, T, IOException>): T = request.inputStream.use {
-          converter.convert(it)
+        override fun <T> handleBody(converter: ThrowableConvertor<InputStream, T, IOException>): T {
+          val stream = CountingInputStream(CancellableInputStream(request.inputStream, indicator))
+          try {
+            return stream.use { converter.convert(it) }
+          }
+          finally {
+            sample.responseSize = stream.count
+          }
         }
       }
     }
@@ -326,7 +526,14 @@ sealed class GiteeApiRequestExecutor {
 
     @CalledInAny
     fun create(credentials: GECredentials, authDataChangedSupplier: suspend (credentials: GECredentials) -> Unit): WithCreateOrUpdateCredentialsAuth {
-      return WithCreateOrUpdateCredentialsAuth(GiteeSettings.getInstance(), credentials, authDataChangedSupplier)
+      return WithCreateOrUpdateCredentialsAuth(GiteeSettings.getInstance(), null, credentials, authDataChangedSupplier)
+    }
+
+    @CalledInAny
+    fun create(account: GiteeAccount,
+               credentials: GECredentials,
+               authDataChangedSupplier: suspend (credentials: GECredentials) -> Unit): WithCreateOrUpdateCredentialsAuth {
+      return WithCreateOrUpdateCredentialsAuth(GiteeSettings.getInstance(), account.id, credentials, authDataChangedSupplier)
     }
 
     @CalledInAny
@@ -344,6 +551,26 @@ sealed class GiteeApiRequestExecutor {
     }
   }
 
+  /**
+   * Checks the indicator on every read, so that cancelling interrupts a long body download as `HttpRequests.Request.getReader(indicator)` did
+   */
+  private class CancellableInputStream(stream: InputStream, private val indicator: ProgressIndicator) : FilterInputStream(stream) {
+    override fun read(): Int {
+      indicator.checkCanceled()
+      return super.read()
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      indicator.checkCanceled()
+      return super.read(b, off, len)
+    }
+
+    override fun skip(n: Long): Long {
+      indicator.checkCanceled()
+      return super.skip(n)
+    }
+  }
+
   companion object {
     private val LOG = logger<GiteeApiRequestExecutor>()
   }
@@ -16,7 +16,6 @@
 package com.gitee.api
 
 import com.gitee.authentication.accounts.GiteeAccount
-import com.gitee.util.GECompatibilityUtil
 import com.intellij.openapi.components.service
 import com.intellij.openapi.project.Project
 import com.intellij.util.concurrency.annotations.RequiresBackgroundThread
@@ -39,7 +38,6 @@ class GiteeApiRequestExecutorManager {
   @Deprecated("One-time use executor should not be persisted")
   @RequiresBackgroundThread
   fun getExecutor(account: GiteeAccount, project: Project): GiteeApiRequestExecutor? {
-    val credentials = GECompatibilityUtil.getOrRequestCredentials(account, project) ?: return null
-    return GiteeApiRequestExecutor.Factory.getInstance().create(credentials)
+    return GEApiRequestExecutorRegistry.getInstance().getOrRequestExecutor(account, project)
   }
 }
\ No newline at end of file
@@ -26,6 +26,9 @@ import com.gitee.api.util.GiteeApiUrlQueryBuilder
 import com.gitee.authentication.GECredentials
 import com.intellij.util.ThrowableConvertor
 import java.awt.Image
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.Date
 
 /**
  * Collection of factory methods for API requests used in plugin
@@ -53,6 +56,24 @@ object GiteeApiRequests {
       }
     }.withOperationName("get profile avatar")
 
+    /**
+     * Avatar bytes with the `ETag`, the request is conditional when [eTag] of a stored copy is known
+     */
+    @JvmStatic
+    fun getAvatar(url: String, eTag: String?) = object : Get<GiteeAvatar>(url) {
+      override val useResponseCache = false
+
+      init {
+        eTag?.let { headers[GiteeApiResponseCache.HEADER_IF_NONE_MATCH] = it }
+      }
+
+      override fun extractResult(response: GiteeApiResponse): GiteeAvatar {
+        val bytes = response.handleBody(ThrowableConvertor { it.readBytes() })
+        // 304 Not Modified comes without a body
+        return GiteeAvatar(response.findHeader(GiteeApiResponseCache.HEADER_ETAG) ?: eTag, bytes.takeIf { it.isNotEmpty() })
+      }
+    }.withOperationName("get profile avatar")
+
     object Repos : Entity("/repos") {
       @JvmOverloads
       @JvmStatic
@@ -81,6 +102,16 @@ object GiteeApiRequests {
       @JvmStatic
       fun get(url: String) = Get.jsonPage<GiteeRepo>(url).withOperationName("get user repositories")
 
+      /**
+       * Repositories of the user matching [query]
+       */
+      @JvmStatic
+      fun search(server: GiteeServerPath, query: String, pagination: GiteeRequestPagination? = null) =
+          Get.jsonPage<GiteeRepo>(getUrl(server, CurrentUser.urlSuffix, urlSuffix, GiteeApiUrlQueryBuilder.urlQuery {
+            param("q", query)
+            param(pagination)
+          })).withOperationName("search user repositories")
+
       @JvmStatic
       fun create(server: GiteeServerPath, name: String, description: String, private: Boolean, autoInit: Boolean? = null) =
           Post.json<GiteeRepo>(getUrl(server, CurrentUser.urlSuffix, urlSuffix),
@@ -242,6 +273,19 @@ object GiteeApiRequests {
       fun get(server: GiteeServerPath, username: String, repoName: String, state: String? = null, assignee: String? = null, pagination: GiteeRequestPagination? = null) =
         get(getUrl(server, Repos.urlSuffix, "/$username/$repoName", urlSuffix, GiteeApiUrlQueryBuilder.urlQuery { param("state", state); param("assignee", assignee); param(pagination) }))
 
+      /**
+       * Issues of any state updated at or after [since], least recently updated first
+       */
+      @JvmStatic
+      fun updatedSince(server: GiteeServerPath, username: String, repoName: String, since: Date?, pagination: GiteeRequestPagination) =
+        get(getUrl(server, Repos.urlSuffix, "/$username/$repoName", urlSuffix, GiteeApiUrlQueryBuilder.urlQuery {
+          param("state", "all")
+          param("sort", "updated")
+          param("direction", "asc")
+          param("since", since?.let { DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(it.toInstant().atOffset(ZoneOffset.UTC)) })
+          param(pagination)
+        }))
+
       @JvmStatic
       fun get(url: String) = Get.jsonPage<GiteeIssue>(url).withOperationName("get issues in repository")
 
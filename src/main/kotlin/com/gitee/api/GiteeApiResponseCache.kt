@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.gitee.util.GiteeEncryptedFiles
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.Weigher
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.util.LowMemoryWatcher
+import com.intellij.openapi.util.io.NioFiles
+import com.intellij.util.ThrowableConvertor
+import com.intellij.util.io.DigestUtil
+import java.io.*
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.io.path.*
+
+/**
+ * Two-tier store of GET responses used for conditional requests (`If-None-Match` / `If-Modified-Since`).
+ *
+ * Entries are kept in a weight-bounded memory tier on top of a size-capped directory in the IDE system dir.
+ * Every entry belongs to a scope - an account or anonymous access - so that responses are never shared between accounts
+ * and survive token refreshes. Each scope has its own directory, which is dropped when the account is removed (see [retainScopes]).
+ * Files are encrypted (see [GiteeEncryptedFiles]), since responses may contain private repositories and issues.
+ */
+@Service
+class GiteeApiResponseCache internal constructor(private val cacheDir: Path,
+                                                 private val encryptedFiles: GiteeEncryptedFiles,
+                                                 private val diskCacheSize: Long) : Disposable {
+
+  constructor() : this(PathManager.getSystemDir().resolve(CACHE_DIR_NAME), GiteeEncryptedFiles.getInstance(), DISK_CACHE_SIZE)
+
+  private val memoryCache = CacheBuilder.newBuilder()
+    .maximumWeight(MEMORY_CACHE_SIZE)
+    .weigher(Weigher<String, Entry> { _, entry -> entry.body.size })
+    .build<String, Entry>()
+
+  private val diskSize: AtomicLong by lazy { AtomicLong(calcDiskSize()) }
+
+  init {
+    LowMemoryWatcher.register(Runnable { memoryCache.invalidateAll() }, this)
+  }
+
+  fun getKey(scope: String, request: GiteeApiRequest<*>): String =
+    getScopeDirName(scope) + "/" + DigestUtil.sha256Hex("${request.acceptMimeType.orEmpty()}\n${request.url}".toByteArray())
+
+  fun get(key: String): Entry? {
+    memoryCache.getIfPresent(key)?.let { return it }
+
+    val entry = readFromDisk(key) ?: return null
+    memoryCache.put(key, entry)
+    return entry
+  }
+
+  fun put(key: String, entry: Entry) {
+    if (entry.body.size > MAX_ENTRY_SIZE) return
+    memoryCache.put(key, entry)
+    writeToDisk(key, entry)
+  }
+
+  /**
+   * Drops memory and disk entries of all scopes except [scopes]
+   */
+  fun retainScopes(scopes: Collection<String>) {
+    val retained = scopes.mapTo(HashSet(), ::getScopeDirName)
+    memoryCache.asMap().keys.removeIf { it.substringBefore('/') !in retained }
+
+    if (!cacheDir.exists()) return
+    try {
+      for (dir in cacheDir.listDirectoryEntries()) {
+        if (dir.name in retained) continue
+        val size = calcSize(dir)
+        NioFiles.deleteRecursively(dir)
+        diskSize.addAndGet(-size)
+      }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to clean up response cache", e)
+    }
+  }
+
+  private fun readFromDisk(key: String): Entry? {
+    val file = cacheDir.resolve(key)
+    return try {
+      val entry = encryptedFiles.read(file) { Entry.read(it) } ?: return null
+      file.setLastModifiedTime(FileTime.fromMillis(System.currentTimeMillis()))
+      entry
+    }
+    catch (e: IOException) {
+      dropUnreadable(file, e)
+    }
+  }
+
+  private fun writeToDisk(key: String, entry: Entry) {
+    try {
+      val file = cacheDir.resolve(key)
+      val previousSize = if (file.exists()) file.fileSize() else 0L
+      if (!encryptedFiles.write(file, entry::write)) return
+
+      if (diskSize.addAndGet(file.fileSize() - previousSize) > diskCacheSize) {
+        trimDiskCache()
+      }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to store cached response $key", e)
+    }
+  }
+
+  private fun dropUnreadable(file: Path, e: Exception): Entry? {
+    // also the case for files written with a key which is no longer in the password safe
+    LOG.debug("Unable to read cached response $file", e)
+    diskSize.addAndGet(-deleteFile(file))
+    return null
+  }
+
+  @Synchronized
+  private fun trimDiskCache() {
+    if (diskSize.get() <= diskCacheSize) return
+
+    val files = listFiles(cacheDir).sortedBy { it.getLastModifiedTime() }
+    for (file in files) {
+      if (diskSize.get() <= diskCacheSize * 3 / 4) break
+      diskSize.addAndGet(-deleteFile(file))
+    }
+  }
+
+  private fun calcDiskSize(): Long = calcSize(cacheDir)
+
+  private fun calcSize(dir: Path): Long {
+    if (!dir.exists()) return 0
+    return try {
+      listFiles(dir).sumOf { it.fileSize() }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to calculate response cache size", e)
+      0
+    }
+  }
+
+  private fun listFiles(dir: Path): List<Path> =
+    dir.listDirectoryEntries().flatMap { if (it.isDirectory()) it.listDirectoryEntries() else listOf(it) }
+
+  private fun deleteFile(file: Path): Long {
+    return try {
+      val size = file.fileSize()
+      file.deleteIfExists()
+      size
+    }
+    catch (e: IOException) {
+      0
+    }
+  }
+
+  override fun dispose() {
+    memoryCache.invalidateAll()
+  }
+
+  /**
+   * Stored response: validators, headers which are significant for result extraction and the decoded body
+   */
+  class Entry(val eTag: String?,
+              val lastModified: String?,
+              val headers: Map<String, String>,
+              val body: ByteArray) {
+
+    fun toResponse(): GiteeApiResponse = object : GiteeApiResponse {
+      override fun findHeader(headerName: String): String? =
+        headers.entries.find { it.key.equals(headerName, true) }?.value
+
+      override fun <T> readBody(converter: ThrowableConvertor<Reader, T, IOException>): T =
+        InputStreamReader(ByteArrayInputStream(body), Charsets.UTF_8).use { converter.convert(it) }
+
+      override fun <T> handleBody(converter: ThrowableConvertor<InputStream, T, IOException>): T =
+        ByteArrayInputStream(body).use { converter.convert(it) }
+    }
+
+    @Throws(IOException::class)
+    internal fun write(output: DataOutputStream) {
+      output.writeInt(FORMAT_VERSION)
+      output.writeUTF(eTag.orEmpty())
+      output.writeUTF(lastModified.orEmpty())
+      output.writeInt(headers.size)
+      for ((name, value) in headers) {
+        output.writeUTF(name)
+        output.writeUTF(value)
+      }
+      output.writeInt(body.size)
+      output.write(body)
+    }
+
+    companion object {
+      private const val FORMAT_VERSION = 1
+
+      @Throws(IOException::class)
+      internal fun read(input: DataInputStream): Entry {
+        if (input.readInt() != FORMAT_VERSION) throw IOException("Unsupported cache entry format")
+        val eTag = input.readUTF().ifEmpty { null }
+        val lastModified = input.readUTF().ifEmpty { null }
+        val headers = LinkedHashMap<String, String>()
+        repeat(input.readInt()) {
+          headers[input.readUTF()] = input.readUTF()
+        }
+        val body = ByteArray(input.readInt())
+        input.readFully(body)
+        return Entry(eTag, lastModified, headers, body)
+      }
+    }
+  }
+
+  companion object {
+    private val LOG = logger<GiteeApiResponseCache>()
+
+    private const val CACHE_DIR_NAME = "gitee/api-responses"
+    private const val MEMORY_CACHE_SIZE = 16L * 1024 * 1024
+    private const val DISK_CACHE_SIZE = 64L * 1024 * 1024
+    private const val MAX_ENTRY_SIZE = 4 * 1024 * 1024
+
+    const val HEADER_ETAG = "ETag"
+    const val HEADER_LAST_MODIFIED = "Last-Modified"
+    const val HEADER_IF_NONE_MATCH = "If-None-Match"
+    const val HEADER_IF_MODIFIED_SINCE = "If-Modified-Since"
+
+    const val ANONYMOUS_SCOPE = "anonymous"
+
+    @JvmStatic
+    fun getInstance(): GiteeApiResponseCache = service()
+
+    fun getAccountScope(accountId: String) = "account:$accountId"
+
+    private fun getScopeDirName(scope: String) = DigestUtil.sha256Hex(scope.toByteArray()).take(16)
+  }
+}
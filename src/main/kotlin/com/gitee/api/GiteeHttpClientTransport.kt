@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.util.net.ssl.CertificateManager
+import java.io.IOException
+import java.io.InputStream
+import java.net.Authenticator
+import java.net.ProxySelector
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.zip.GZIPInputStream
+
+/**
+ * Alternative transport for [GiteeApiRequestExecutor] based on [java.net.http.HttpClient].
+ *
+ * One client is shared per server, so requests to the same host are multiplexed over HTTP/2 connections when the server supports it.
+ * Proxy and authentication are taken from the IDE-wide [ProxySelector] and [Authenticator], certificates from [CertificateManager].
+ */
+@Service
+class GiteeHttpClientTransport : Disposable {
+
+  private val clients = ConcurrentHashMap<String, HttpClient>()
+
+  @Throws(IOException::class)
+  fun send(request: GiteeApiRequest<*>,
+           headers: Map<String, String>,
+           connectTimeout: Int,
+           indicator: ProgressIndicator): HttpResponse<InputStream> {
+    val uri = URI(forceHttps(request.url))
+
+    val builder = HttpRequest.newBuilder(uri)
+      .timeout(Duration.ofMillis(READ_TIMEOUT))
+      .header("User-Agent", USER_AGENT)
+      .header("Accept-Encoding", "gzip")
+    request.acceptMimeType?.let { builder.header("Accept", it) }
+    for ((name, value) in headers) {
+      if (name.lowercase() !in RESTRICTED_HEADERS) builder.header(name, value)
+    }
+
+    when (request) {
+      is GiteeApiRequest.Get -> builder.GET()
+      is GiteeApiRequest.Head -> builder.method("HEAD", HttpRequest.BodyPublishers.noBody())
+      is GiteeApiRequest.WithBody -> {
+        val method = when (request) {
+          is GiteeApiRequest.Post -> "POST"
+          is GiteeApiRequest.Put -> "PUT"
+          is GiteeApiRequest.Patch -> "PATCH"
+          is GiteeApiRequest.Delete -> "DELETE"
+          else -> throw UnsupportedOperationException("${request.javaClass} is not supported")
+        }
+        val body = request.body
+        builder.header("Content-Type", request.bodyMimeType)
+        builder.method(method, if (body != null) HttpRequest.BodyPublishers.ofString(body) else HttpRequest.BodyPublishers.noBody())
+      }
+    }
+
+    val future = getClient(uri, connectTimeout).sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+    return await(future, indicator)
+  }
+
+  private fun getClient(uri: URI, connectTimeout: Int): HttpClient =
+    clients.computeIfAbsent("${uri.scheme}://${uri.authority}#$connectTimeout") {
+      HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(Duration.ofMillis(connectTimeout.toLong()))
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .proxy(ProxySelector.getDefault())
+        .apply { Authenticator.getDefault()?.let { authenticator(it) } }
+        .sslContext(CertificateManager.getInstance().sslContext)
+        .build()
+    }
+
+  @Throws(IOException::class)
+  private fun <T> await(future: CompletableFuture<T>, indicator: ProgressIndicator): T {
+    try {
+      while (true) {
+        indicator.checkCanceled()
+        try {
+          return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        }
+        catch (e: TimeoutException) {
+          continue
+        }
+      }
+    }
+    catch (e: ProcessCanceledException) {
+      future.cancel(true)
+      throw e
+    }
+    catch (e: InterruptedException) {
+      future.cancel(true)
+      throw ProcessCanceledException(e)
+    }
+    catch (e: ExecutionException) {
+      throw e.cause as? IOException ?: IOException(e.cause ?: e)
+    }
+  }
+
+  override fun dispose() {
+    clients.clear()
+  }
+
+  companion object {
+    const val USER_AGENT = "Intellij IDEA Gitee Plugin"
+
+    private const val READ_TIMEOUT = 60_000L
+    private const val AWAIT_TIMEOUT_MS = 50L
+
+    // managed by the client itself, setting them explicitly is prohibited
+    private val RESTRICTED_HEADERS = setOf("connection", "content-length", "expect", "host", "upgrade")
+
+    @JvmStatic
+    fun getInstance(): GiteeHttpClientTransport = service()
+
+    @Throws(IOException::class)
+    fun decodeBody(response: HttpResponse<InputStream>): InputStream {
+      val gzipped = response.headers().firstValue("Content-Encoding").map { it.equals("gzip", true) }.orElse(false)
+      return if (gzipped) GZIPInputStream(response.body()) else response.body()
+    }
+
+    private fun forceHttps(url: String) = if (url.startsWith("http:")) "https:" + url.substring(5) else url
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api.data
+
+/**
+ * Avatar image as received from the server together with its `ETag`, [bytes] is null when the stored copy is still valid
+ */
+class GiteeAvatar(val eTag: String?, val bytes: ByteArray?) {
+  val isNotModified: Boolean
+    get() = bytes == null
+}
@@ -24,7 +24,8 @@ import com.gitee.exceptions.GiteeConfusingException
  * @author JetBrains s.r.o.
  */
 class GiteeResponsePage<T> constructor(var items: List<T>,
-                                       val nextLink: String? = null) {
+                                       val nextLink: String? = null,
+                                       val totalPages: Int? = null) {
 
   val hasNext = nextLink != null
 
@@ -34,12 +35,14 @@ class GiteeResponsePage<T> constructor(var items: List<T>,
     const val HEADER_TOTAL_COUNT = "total_count"
     const val HEADER_TOTAL_PAGE = "total_page"
 
+    private val PAGE_REGEX = Regex("([?&]+page=)(\\d+)")
+
     @JvmStatic
     @Throws(GiteeConfusingException::class)
     fun <T> parseFromHeader(items: List<T>, requestUrl: String, totalCountHeaderValue: Int?): GiteeResponsePage<T> {
       if (totalCountHeaderValue == null || items.size == totalCountHeaderValue) return GiteeResponsePage(items)
 
-      val newNextLink = requestUrl.replace(Regex("([?&]+page=)(\\d+)")) {
+      val newNextLink = requestUrl.replace(PAGE_REGEX) {
         "${it.groupValues[1]}${it.groupValues[2].toInt() + 1}"
       }
 
@@ -49,22 +52,29 @@ class GiteeResponsePage<T> constructor(var items: List<T>,
     @JvmStatic
     @Throws(GiteeConfusingException::class)
     fun <T> parseFromHeaderPage(items: List<T>, requestUrl: String, totalPageHeaderValue: Int?): GiteeResponsePage<T> {
-      val pageRegex = Regex("([?&]+page=)(\\d+)");
-      val findPageResult = pageRegex.find(requestUrl);
-      val curPage = findPageResult?.groupValues?.get(2)?.toInt()
+      val curPage = getPageNumber(requestUrl)
 
       if (curPage == null || totalPageHeaderValue == 0 || curPage == totalPageHeaderValue) {
-        return GiteeResponsePage(items)
+        return GiteeResponsePage(items, totalPages = totalPageHeaderValue)
       }
 
-      val newNextLink = requestUrl.replace(Regex("([?&]+page=)(\\d+)")) {
-        "${it.groupValues[1]}${it.groupValues[2].toInt() + 1}"
-      }
-      return GiteeResponsePage(items, newNextLink)
+      return GiteeResponsePage(items, getPageUrl(requestUrl, curPage + 1), totalPageHeaderValue)
+    }
+
+    /**
+     * @return value of the `page` query parameter or null if the url is not paginated
+     */
+    @JvmStatic
+    fun getPageNumber(requestUrl: String): Int? = PAGE_REGEX.find(requestUrl)?.groupValues?.get(2)?.toInt()
+
+    /**
+     * @return [requestUrl] with the `page` query parameter replaced by [page]
+     */
+    @JvmStatic
+    fun getPageUrl(requestUrl: String, page: Int): String = requestUrl.replace(PAGE_REGEX) {
+      "${it.groupValues[1]}$page"
     }
 
     fun <T> empty(nextLink: String? = null) = GiteeResponsePage<T>(emptyList(), nextLink = nextLink)
   }
 }
-
-
@@ -15,12 +15,23 @@
  */
 package com.gitee.api.util
 
+import com.gitee.api.GiteeApiRateLimiter
 import com.gitee.api.GiteeApiRequest
 import com.gitee.api.GiteeApiRequestExecutor
 import com.gitee.api.data.GiteeResponsePage
+import com.intellij.execution.process.ProcessIOExecutorService
 import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.progress.SensitiveProgressWrapper
+import com.intellij.openapi.util.Computable
+import com.intellij.openapi.util.ThrowableComputable
 import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.function.Predicate
+import java.util.function.Supplier
 
 /**
  * @author Yuyou Chow
@@ -54,6 +65,103 @@ object GiteeApiPagesLoader {
     }
   }
 
+  /**
+   * Loads the first page and, if the server reported `total_page`, requests the remaining pages concurrently
+   * keeping at most [parallelism] of them in flight.
+   * Items are still passed to [pageItemsConsumer] in the original page order on the calling thread,
+   * the first page is decoded incrementally and its items are passed in batches of [STREAMING_BATCH_SIZE] while it is being read.
+   * Cancellation of [indicator] or a failure of any page cancels all pages that are still loading.
+   */
+  @Throws(IOException::class)
+  @JvmStatic
+  fun <T> loadAll(executor: GiteeApiRequestExecutor,
+                  indicator: ProgressIndicator,
+                  pagesRequest: Request<T>,
+                  parallelism: Int,
+                  pageItemsConsumer: (List<T>) -> Unit) {
+
+    val firstPage = executeStreaming(executor, indicator, pagesRequest.initialRequest, pageItemsConsumer)
+
+    val nextLink = firstPage.nextLink ?: return
+    val totalPages = firstPage.totalPages
+    val nextPage = GiteeResponsePage.getPageNumber(nextLink)
+    if (parallelism <= 1 || totalPages == null || nextPage == null) {
+      loadAll(executor, indicator, Request(pagesRequest.urlRequestProvider(nextLink), pagesRequest.urlRequestProvider),
+              pageItemsConsumer)
+      return
+    }
+
+    val pagesIndicator = SensitiveProgressWrapper(indicator)
+    val priority = GiteeApiRateLimiter.currentPriority()
+    val pending = ArrayDeque<CompletableFuture<GiteeResponsePage<T>>>()
+    var pageToSubmit = nextPage
+
+    fun submitNext() {
+      val request = pagesRequest.urlRequestProvider(GiteeResponsePage.getPageUrl(nextLink, pageToSubmit++))
+      val pageIndicator = SensitiveProgressWrapper(pagesIndicator)
+      pending.addLast(CompletableFuture.supplyAsync(Supplier {
+        GiteeApiRateLimiter.computeWithPriority(priority, ThrowableComputable<GiteeResponsePage<T>, IOException> {
+          ProgressManager.getInstance().runProcess(Computable { executor.execute(pageIndicator, request) }, pageIndicator)
+        })
+      }, ProcessIOExecutorService.INSTANCE))
+    }
+
+    try {
+      while (pending.size < parallelism && pageToSubmit <= totalPages) submitNext()
+
+      while (pending.isNotEmpty()) {
+        val page = awaitPage(pending.removeFirst(), indicator)
+        if (pageToSubmit <= totalPages) submitNext()
+        pageItemsConsumer(page.items)
+      }
+    }
+    finally {
+      pagesIndicator.cancel()
+      pending.forEach { it.cancel(true) }
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun <T> executeStreaming(executor: GiteeApiRequestExecutor,
+                                   indicator: ProgressIndicator,
+                                   request: GiteeApiRequest<GiteeResponsePage<T>>,
+                                   pageItemsConsumer: (List<T>) -> Unit): GiteeResponsePage<T> {
+    @Suppress("UNCHECKED_CAST")
+    val jsonPageRequest = request as? GiteeApiRequest.Get.JsonPage<T>
+    if (jsonPageRequest == null) {
+      val page = executor.execute(indicator, request)
+      pageItemsConsumer(page.items)
+      return page
+    }
+
+    val batch = ArrayList<T>(STREAMING_BATCH_SIZE)
+    val page = executor.execute(indicator, jsonPageRequest.streaming {
+      batch.add(it)
+      if (batch.size == STREAMING_BATCH_SIZE) {
+        pageItemsConsumer(batch.toList())
+        batch.clear()
+      }
+    })
+    if (batch.isNotEmpty()) pageItemsConsumer(batch.toList())
+    return page
+  }
+
+  @Throws(IOException::class)
+  private fun <T> awaitPage(future: CompletableFuture<GiteeResponsePage<T>>, indicator: ProgressIndicator): GiteeResponsePage<T> {
+    while (true) {
+      indicator.checkCanceled()
+      try {
+        return future.get(PAGE_AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+      }
+      catch (e: TimeoutException) {
+        continue
+      }
+      catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+  }
+
   @Throws(IOException::class)
   @JvmStatic
   fun <T> find(executor: GiteeApiRequestExecutor, indicator: ProgressIndicator, pagesRequest: Request<T>, predicate: Predicate<T>): T? {
@@ -84,6 +192,10 @@ object GiteeApiPagesLoader {
     return result
   }
 
+  const val DEFAULT_PARALLELISM = 4
+  const val STREAMING_BATCH_SIZE = 20
+  private const val PAGE_AWAIT_TIMEOUT_MS = 50L
+
   class Request<T>(val initialRequest: GiteeApiRequest<GiteeResponsePage<T>>,
                    val urlRequestProvider: (String) -> GiteeApiRequest<GiteeResponsePage<T>>)
 }
\ No newline at end of file
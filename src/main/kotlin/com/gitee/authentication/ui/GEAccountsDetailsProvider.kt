@@ -73,7 +73,7 @@ internal class GEAccountsDetailsProvider(
       return accountsModel.newCredentials.getOrElse(account) {
         accountManager.findCredentials(account)
       }?.let { credentials ->
-        service<GiteeApiRequestExecutor.Factory>().create(credentials) {
+        service<GiteeApiRequestExecutor.Factory>().create(account, credentials) {
           newCredentials -> accountManager.updateAccount(account, newCredentials)
         }
       }
@@ -82,7 +82,7 @@ internal class GEAccountsDetailsProvider(
     private suspend fun getExecutor(accountManager: GEAccountManager, account: GiteeAccount)
       : GiteeApiRequestExecutor? {
       return accountManager.findCredentials(account)?.let { credentials ->
-        service<GiteeApiRequestExecutor.Factory>().create(credentials) {
+        service<GiteeApiRequestExecutor.Factory>().create(account, credentials) {
             newCredentials -> accountManager.updateAccount(account, newCredentials)
         }
       }
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.authentication.util
+
+import com.gitee.api.GiteeApiRequestExecutor
+import com.gitee.api.GiteeServerPath
+import com.gitee.authentication.GECredentials
+import com.gitee.exceptions.GiteeAuthenticationException
+import com.google.common.cache.CacheBuilder
+import com.intellij.execution.process.ProcessIOExecutorService
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Computable
+import com.intellij.util.io.DigestUtil
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Makes sure a refresh token is exchanged at most once.
+ *
+ * Concurrent refresh requests for the same refresh token wait for the single running exchange,
+ * requests that arrive shortly after it has finished get the new credentials without calling the server again.
+ */
+@Service
+class GECredentialsRefreshCoordinator {
+
+  private val inProgress = ConcurrentHashMap<String, CompletableFuture<GECredentials?>>()
+  private val refreshed = CacheBuilder.newBuilder()
+    .expireAfterWrite(REFRESHED_CREDENTIALS_TTL_MIN, TimeUnit.MINUTES)
+    .build<String, GECredentials>()
+
+  /**
+   * @return future with the new credentials or null if the refresh token was rejected
+   */
+  fun refresh(server: GiteeServerPath, credentials: GECredentials): CompletableFuture<GECredentials?> {
+    val key = DigestUtil.sha256Hex(credentials.refreshToken.toByteArray())
+    refreshed.getIfPresent(key)?.let { return CompletableFuture.completedFuture(it) }
+
+    var created: CompletableFuture<GECredentials?>? = null
+    val future = inProgress.computeIfAbsent(key) { CompletableFuture<GECredentials?>().also { created = it } }
+    if (created != null) {
+      ProcessIOExecutorService.INSTANCE.execute {
+        try {
+          val result = doRefresh(server, credentials.refreshToken)
+          if (result != null) refreshed.put(key, result)
+          future.complete(result)
+        }
+        catch (e: Throwable) {
+          future.completeExceptionally(e)
+        }
+        finally {
+          inProgress.remove(key, future)
+        }
+      }
+    }
+    return future
+  }
+
+  @Throws(IOException::class, ProcessCanceledException::class)
+  fun await(future: CompletableFuture<GECredentials?>, indicator: ProgressIndicator): GECredentials? {
+    while (true) {
+      indicator.checkCanceled()
+      try {
+        return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+      }
+      catch (e: TimeoutException) {
+        continue
+      }
+      catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+  }
+
+  private fun doRefresh(server: GiteeServerPath, refreshToken: String): GECredentials? {
+    LOG.debug("Refreshing access token for $server")
+    return try {
+      ProgressManager.getInstance().runProcess(Computable {
+        GiteeCredentialsCreator(server, GiteeApiRequestExecutor.Factory.getInstance().create()).refresh(refreshToken)
+      }, EmptyProgressIndicator())
+    }
+    catch (e: GiteeAuthenticationException) {
+      LOG.info("Access token refresh was rejected for $server", e)
+      null
+    }
+  }
+
+  companion object {
+    private val LOG = logger<GECredentialsRefreshCoordinator>()
+
+    private const val REFRESHED_CREDENTIALS_TTL_MIN = 10L
+    private const val AWAIT_TIMEOUT_MS = 50L
+
+    /**
+     * Refresh is started this long before the access token expires
+     */
+    const val REFRESH_MARGIN_MS = 5 * 60 * 1000L
+
+    @JvmStatic
+    fun getExpirationTime(credentials: GECredentials): Long = (credentials.createdAt + credentials.expiresIn) * 1000
+
+    @JvmStatic
+    fun getInstance(): GECredentialsRefreshCoordinator = service()
+  }
+}
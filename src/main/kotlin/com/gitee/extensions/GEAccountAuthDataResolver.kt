@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.extensions
+
+import com.gitee.api.GEApiRequestExecutorRegistry
+import com.gitee.authentication.GECredentials
+import com.gitee.authentication.accounts.GEAccountManager
+import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.authentication.accounts.GiteeAccountInformationProvider
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.DumbProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.util.io.DigestUtil
+import git4idea.remote.hosting.GitHostingUrlUtil
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+
+private val LOG = logger<GEAccountAuthDataResolver>()
+
+/**
+ * Finds accounts for git remote urls and their logins for HTTP authentication.
+ *
+ * Accounts are indexed by host, credentials are taken from [GEApiRequestExecutorRegistry] and a login is requested
+ * only once per account credentials, so repeated fetches and pushes are resolved from memory.
+ */
+@Service
+internal class GEAccountAuthDataResolver {
+
+  @Volatile
+  private var hostIndex: HostIndex? = null
+  private val logins = ConcurrentHashMap<GiteeAccount, CachedLogin>()
+
+  /**
+   * @return accounts whose server matches [url]
+   */
+  fun findAccounts(url: String): List<GiteeAccount> {
+    val accounts = service<GEAccountManager>().accountsState.value
+    val index = hostIndex?.takeIf { it.accounts === accounts } ?: HostIndex(accounts).also { hostIndex = it }
+    return index.find(url).filter { GitHostingUrlUtil.match(it.server.toURI(), url) }
+  }
+
+  suspend fun getCredentials(account: GiteeAccount): GECredentials? =
+    GEApiRequestExecutorRegistry.getInstance().getCredentials(account)
+
+  /**
+   * Credentials of [accounts] read concurrently, accounts without credentials are mapped to null
+   */
+  suspend fun getCredentials(accounts: Collection<GiteeAccount>): Map<GiteeAccount, GECredentials?> = coroutineScope {
+    accounts.map { account -> async { account to getCredentials(account) } }.awaitAll().toMap()
+  }
+
+  /**
+   * Logins of [accounts] requested concurrently, accounts without credentials or details are skipped
+   */
+  suspend fun getLogins(accounts: Map<GiteeAccount, GECredentials>): Map<GiteeAccount, String> = coroutineScope {
+    accounts.map { (account, credentials) -> async { getLogin(account, credentials)?.let { account to it } } }
+      .awaitAll().filterNotNull().toMap()
+  }
+
+  /**
+   * @return null if the access token of [credentials] has expired or the account details cannot be loaded
+   */
+  suspend fun getLogin(account: GiteeAccount, credentials: GECredentials): String? {
+    if (!credentials.isAccessTokenValid()) {
+      LOG.info("Credentials of $account expired at ${credentials.createdAt + credentials.expiresIn}")
+      return null
+    }
+    val fingerprint = DigestUtil.sha256Hex(credentials.accessToken.toByteArray())
+    logins[account]?.takeIf { it.fingerprint == fingerprint }?.let { return it.login }
+
+    val login = try {
+      val executor = GEApiRequestExecutorRegistry.getInstance().getExecutor(account) ?: return null
+      withContext(Dispatchers.IO) {
+        service<GiteeAccountInformationProvider>().getInformation(executor, DumbProgressIndicator(), account).login
+      }
+    }
+    catch (e: Exception) {
+      if (e !is ProcessCanceledException) LOG.info("Cannot load details for $account", e)
+      return null
+    }
+    logins[account] = CachedLogin(fingerprint, login)
+    return login
+  }
+
+  private class CachedLogin(val fingerprint: String, val login: String)
+
+  private class HostIndex(val accounts: Set<GiteeAccount>) {
+    private val accountsByHost = accounts.groupBy { it.server.host.lowercase() }
+
+    fun find(url: String): List<GiteeAccount> {
+      val host = try {
+        URI(url).host
+      }
+      catch (e: Exception) {
+        null
+      } ?: return accounts.toList()
+      return accountsByHost[host.lowercase()].orEmpty()
+    }
+  }
+
+  companion object {
+    fun getInstance(): GEAccountAuthDataResolver = service()
+  }
+}
@@ -16,29 +16,17 @@
 
 package com.gitee.extensions
 
-import com.gitee.api.GiteeApiRequestExecutor
-import com.gitee.api.data.GiteeAuthenticatedUser
 import com.gitee.authentication.GEAccountAuthData
 import com.gitee.authentication.GECredentials
-import com.gitee.authentication.accounts.GEAccountManager
 import com.gitee.authentication.accounts.GiteeAccount
-import com.gitee.authentication.accounts.GiteeAccountInformationProvider
 import com.gitee.authentication.accounts.GiteeProjectDefaultAccountHolder
-import com.gitee.exceptions.GiteeAccessTokenExpiredException
 import com.intellij.openapi.components.service
-import com.intellij.openapi.diagnostic.logger
-import com.intellij.openapi.progress.DumbProgressIndicator
-import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.project.Project
 import com.intellij.util.AuthData
 import com.intellij.util.concurrency.annotations.RequiresBackgroundThread
 import git4idea.remote.GitHttpAuthDataProvider
 import git4idea.remote.hosting.GitHostingUrlUtil
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.withContext
-
-private val LOG = logger<GEHttpAuthDataProvider>()
 
 /**
  * @author Yuyou Chow
@@ -62,7 +50,7 @@ internal class GEHttpAuthDataProvider : GitHttpAuthDataProvider {
 
     return getAccountsWithTokens(project, url).entries
       .singleOrNull { it.value != null }?.let { (acc, credentials) ->
-        val login = getAccountDetails(acc, credentials!!)?.login ?: return null
+        val login = GEAccountAuthDataResolver.getInstance().getLogin(acc, credentials!!) ?: return null
         GEAccountAuthData(acc, login, credentials)
       }
   }
@@ -78,12 +66,7 @@ internal class GEHttpAuthDataProvider : GitHttpAuthDataProvider {
       return defaultAuthData
     }
 
-    return getAccountsWithTokens(project, url).mapNotNull { (acc, credentials) ->
-      if (credentials == null) return@mapNotNull null
-      val details = getAccountDetails(acc, credentials) ?: return@mapNotNull null
-      if (details.login != login) return@mapNotNull null
-      GEAccountAuthData(acc, login, credentials)
-    }.singleOrNull()
+    return getAccountsWithLogin(project, url, login).map { (acc, credentials) -> GEAccountAuthData(acc, login, credentials) }.singleOrNull()
   }
 
   override fun forgetPassword(project: Project, url: String, authData: AuthData) {
@@ -101,35 +84,29 @@ internal class GEHttpAuthDataProvider : GitHttpAuthDataProvider {
           defaultAccount
         )
       ) {
-        val credentials = service<GEAccountManager>().findCredentials(defaultAccount) ?: return null
-        val login = getAccountDetails(defaultAccount, credentials)?.login ?: return null
+        val resolver = GEAccountAuthDataResolver.getInstance()
+        val credentials = resolver.getCredentials(defaultAccount) ?: return null
+        val login = resolver.getLogin(defaultAccount, credentials) ?: return null
         return GEAccountAuthData(defaultAccount, login, credentials)
       }
       return null
     }
 
     suspend fun getAccountsWithTokens(project: Project, url: String): Map<GiteeAccount, GECredentials?> {
-      val accountManager = service<GEAccountManager>()
       val authFailureManager = project.service<GEGitAuthenticationFailureManager>()
+      val resolver = GEAccountAuthDataResolver.getInstance()
 
-      return accountManager.accountsState.value
-        .filter { GitHostingUrlUtil.match(it.server.toURI(), url) }
-        .filterNot { authFailureManager.isAccountIgnored(url, it) }
-        .associateWith { accountManager.findCredentials(it) }
+      val accounts = resolver.findAccounts(url).filterNot { authFailureManager.isAccountIgnored(url, it) }
+      return resolver.getCredentials(accounts)
     }
 
-    suspend fun getAccountDetails(account: GiteeAccount, credentials: GECredentials): GiteeAuthenticatedUser? =
-      try {
-        if (!credentials.isAccessTokenValid())
-          throw GiteeAccessTokenExpiredException("Account: ${account}'s credentials expire time: ${credentials.createdAt + credentials.expiresIn}")
-
-        val executor = GiteeApiRequestExecutor.Factory.getInstance().create(credentials)
-        withContext(Dispatchers.IO) {
-          service<GiteeAccountInformationProvider>().getInformation(executor, DumbProgressIndicator(), account)
-        }
-      } catch (e: Exception) {
-        if (e !is ProcessCanceledException) LOG.info("Cannot load details for $account", e)
-        null
-      }
+    /**
+     * Accounts matching [url] which are logged in as [login], logins of several accounts are resolved concurrently
+     */
+    suspend fun getAccountsWithLogin(project: Project, url: String, login: String): Map<GiteeAccount, GECredentials> {
+      val accounts = getAccountsWithTokens(project, url).mapNotNull { (acc, credentials) -> credentials?.let { acc to it } }.toMap()
+      val logins = GEAccountAuthDataResolver.getInstance().getLogins(accounts)
+      return accounts.filterKeys { logins[it] == login }
+    }
   }
-}
\ No newline at end of file
+}
@@ -1,24 +1,41 @@
 // Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package com.gitee.extensions
 
+import com.gitee.api.GEApiRequestExecutorRegistry
+import com.gitee.api.GERepositoryCoordinates
+import com.gitee.api.GiteeApiRateLimiter
 import com.gitee.api.GiteeApiRequestExecutor
+import com.gitee.api.GiteeApiRequests
+import com.gitee.api.util.GiteeApiPagesLoader
 import com.gitee.authentication.accounts.GEAccountManager
+import com.gitee.authentication.accounts.GiteeAccount
 import com.gitee.authentication.accounts.GiteeProjectDefaultAccountHolder
 import com.gitee.i18n.GiteeBundle
 import com.gitee.util.GEHostedRepositoriesManager
 import com.gitee.util.GiteeProjectSettings
+import com.google.common.cache.CacheBuilder
+import com.intellij.execution.process.ProcessIOExecutorService
 import com.intellij.openapi.application.runInEdt
 import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.progress.SensitiveProgressWrapper
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Computable
+import com.intellij.openapi.util.ThrowableComputable
 import git4idea.config.GitSharedSettings
 import git4idea.fetch.GitFetchHandler
 import git4idea.remote.hosting.findKnownRepositories
 import git4idea.repo.GitRemote
 import git4idea.repo.GitRepository
-import kotlinx.coroutines.runBlocking
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.regex.Pattern
 
 private val LOG = logger<GEProtectedBranchRulesLoader>()
 
@@ -26,7 +43,9 @@ internal class GEProtectedBranchRulesLoader : GitFetchHandler {
 
   override fun doAfterSuccessfulFetch(project: Project, fetches: Map<GitRepository, List<GitRemote>>, indicator: ProgressIndicator) {
     try {
-      loadProtectionRules(indicator, fetches, project)
+      GiteeApiRateLimiter.computeWithPriority(GiteeApiRateLimiter.Priority.BACKGROUND, ThrowableComputable<Unit, Exception> {
+        loadProtectionRules(indicator, fetches, project)
+      })
     }
     catch (e: Exception) {
       if (e is ProcessCanceledException) {
@@ -42,30 +61,25 @@ internal class GEProtectedBranchRulesLoader : GitFetchHandler {
 
     val accountManager = service<GEAccountManager>()
     val accounts = accountManager.accountsState.value
-    if (!GitSharedSettings.getInstance(project).isSynchronizeBranchProtectionRules || !accounts.isEmpty()) {
-      runInEdt {
-        project.service<GiteeProjectSettings>().branchProtectionPatterns = arrayListOf()
-      }
+    if (!GitSharedSettings.getInstance(project).isSynchronizeBranchProtectionRules || accounts.isEmpty()) {
+      updatePatterns(project, emptyList())
       return
     }
 
     indicator.text = GiteeBundle.message("progress.text.loading.protected.branches")
 
-    val branchProtectionPatterns = mutableSetOf<String>()
+    val defaultAccount = project.service<GiteeProjectDefaultAccountHolder>().account
+    val repositories = mutableMapOf<GERepositoryCoordinates, GiteeAccount>()
     for ((repository, remotes) in fetches) {
       indicator.checkCanceled()
 
       for (remote in remotes) {
-        indicator.checkCanceled()
-
         val repositoryMapping =
           project.service<GEHostedRepositoriesManager>().findKnownRepositories(repository)
             .find { it.remote.remote == remote }
             ?: continue
 
         val serverPath = repositoryMapping.repository.serverPath
-        val defaultAccount = project.service<GiteeProjectDefaultAccountHolder>().account
-
         val account =
           if (defaultAccount != null
             && defaultAccount.server.equals(serverPath, true)) {
@@ -77,20 +91,84 @@ internal class GEProtectedBranchRulesLoader : GitFetchHandler {
             }
           } ?: continue
 
+        repositories[repositoryMapping.repository] = account
+      }
+    }
 
-        val token = runBlocking { accountManager.findCredentials(account) } ?: continue
-//        val _requestExecutor = service<GiteeApiRequestExecutor.Factory>().create(token)
-        service<GiteeApiRequestExecutor.Factory>().create(token)
+    // repositories are requested in parallel, each of them at most once per TTL
+    val priority = GiteeApiRateLimiter.currentPriority()
+    val futures = repositories.map { (repository, account) ->
+      rulesCache.getIfPresent(repository)?.let { return@map CompletableFuture.completedFuture(it) }
+
+      val repositoryIndicator = SensitiveProgressWrapper(indicator)
+      CompletableFuture.supplyAsync({
+        ProgressManager.getInstance().runProcess(Computable {
+          GiteeApiRateLimiter.computeWithPriority(priority, ThrowableComputable<List<String>, Exception> {
+            val executor = GEApiRequestExecutorRegistry.getInstance().findExecutor(account) ?: return@ThrowableComputable emptyList()
+            try {
+              loadProtectedBranches(executor, repositoryIndicator, repository).also { rulesCache.put(repository, it) }
+            }
+            catch (e: IOException) {
+              LOG.info("Unable to load protected branches of $repository", e)
+              emptyList()
+            }
+          })
+        }, repositoryIndicator)
+      }, ProcessIOExecutorService.INSTANCE)
+    }
 
-//        SimpleGHGQLPagesLoader(requestExecutor, { GHGQLRequests.Repo.getProtectionRules(repositoryMapping.repository) })
-//          .loadAll(SensitiveProgressWrapper((indicator)))
-//          .forEach { rule -> branchProtectionPatterns.add(PatternUtil.convertToRegex(rule.pattern)) }
-      }
+    val branchProtectionPatterns = sortedSetOf<String>()
+    for (future in futures) {
+      branchProtectionPatterns.addAll(await(future, indicator))
     }
 
+    updatePatterns(project, branchProtectionPatterns)
+  }
+
+  private fun loadProtectedBranches(executor: GiteeApiRequestExecutor,
+                                    indicator: ProgressIndicator,
+                                    repository: GERepositoryCoordinates): List<String> {
+    val request = GiteeApiRequests.Repos.Branches.pages(repository.serverPath, repository.repositoryPath.owner,
+                                                        repository.repositoryPath.repository)
+    return GiteeApiPagesLoader.loadAll(executor, indicator, request).filter { it.isProtected }.map { it.name }
+  }
+
+  /**
+   * Protected branch names are stored as a single alternation, so Git compiles and checks one pattern per branch
+   */
+  private fun updatePatterns(project: Project, branches: Collection<String>) {
+    val patterns = if (branches.isEmpty()) arrayListOf() else arrayListOf(branches.joinToString("|") { Pattern.quote(it) })
     runInEdt {
-      project.service<GiteeProjectSettings>().branchProtectionPatterns = branchProtectionPatterns.toMutableList()
+      val settings = project.service<GiteeProjectSettings>()
+      if (settings.branchProtectionPatterns != patterns) {
+        settings.branchProtectionPatterns = patterns
+      }
     }
   }
 
+  private fun <T> await(future: CompletableFuture<T>, indicator: ProgressIndicator): T {
+    while (true) {
+      indicator.checkCanceled()
+      try {
+        return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+      }
+      catch (e: TimeoutException) {
+        continue
+      }
+      catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+  }
+
+  companion object {
+    private const val AWAIT_TIMEOUT_MS = 50L
+    private const val RULES_TTL_MINUTES = 10L
+
+    // protected branches of a repository; stale entries are re-requested conditionally through the API response cache
+    private val rulesCache = CacheBuilder.newBuilder()
+      .expireAfterWrite(RULES_TTL_MINUTES, TimeUnit.MINUTES)
+      .maximumSize(1000)
+      .build<GERepositoryCoordinates, List<String>>()
+  }
 }
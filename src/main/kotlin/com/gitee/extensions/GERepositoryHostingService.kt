@@ -22,13 +22,8 @@ internal class GERepositoryHostingService : GitRepositoryHostingService() {
   @RequiresBackgroundThread
   override fun getInteractiveAuthDataProvider(project: Project, url: String, login: String)
     : InteractiveGitHttpAuthDataProvider? = runBlocking {
-    GEHttpAuthDataProvider.getAccountsWithTokens(project, url).mapNotNull { (acc, credentials) ->
-      if (credentials == null) return@mapNotNull null
-      val details = GEHttpAuthDataProvider.getAccountDetails(acc, credentials) ?: return@mapNotNull null
-      if (details.login != login) return@mapNotNull null
-      acc to credentials
-    }.takeIf { it.isNotEmpty() }?.let {
-      GESelectAccountHttpAuthDataProvider(project, it.toMap())
+    GEHttpAuthDataProvider.getAccountsWithLogin(project, url, login).takeIf { it.isNotEmpty() }?.let {
+      GESelectAccountHttpAuthDataProvider(project, it)
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.issue
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.GiteeApiRateLimiter
+import com.gitee.api.GiteeApiRequestExecutor
+import com.gitee.api.GiteeApiRequests
+import com.gitee.api.GiteeServerPath
+import com.gitee.api.data.GiteeIssue
+import com.gitee.api.data.GiteeIssueState
+import com.gitee.api.data.request.GiteeRequestPagination
+import com.gitee.util.GiteeEncryptedFiles
+import com.intellij.execution.process.ProcessIOExecutorService
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.util.ThrowableComputable
+import java.io.IOException
+import java.io.StringReader
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Local copy of the issues of a single repository with a full-text index over their numbers, titles and bodies.
+ *
+ * The copy is synchronized incrementally: only issues updated since the latest known `updated_at` are requested.
+ * It is stored encrypted in [file] (kept in memory only if encryption is not available) and is used to answer searches
+ * without network access.
+ */
+class GiteeIssuesIndex internal constructor(private val server: GiteeServerPath,
+                                            private val owner: String,
+                                            private val repo: String,
+                                            private val file: Path,
+                                            private val encryptedFiles: GiteeEncryptedFiles) {
+
+  private val lock = ReentrantReadWriteLock()
+  private val issues = HashMap<String, Entry>()
+  // word -> numbers of issues containing it, sorted for prefix lookups
+  private val terms = TreeMap<String, MutableSet<String>>()
+  private var lastUpdated: Date? = null
+
+  private val syncLock = Any()
+  @Volatile
+  private var loaded = false
+  @Volatile
+  private var lastSyncTime = 0L
+
+  @Volatile
+  private var initialSync: CompletableFuture<*>? = null
+
+  val isEmpty: Boolean
+    get() = lock.read { issues.isEmpty() }
+
+  /**
+   * Whether the index can answer searches: it has a stored copy or was synchronized at least once,
+   * and the initial synchronization is not running
+   */
+  val isReady: Boolean
+    get() {
+      if (initialSync?.isDone == false) return false
+      ensureLoaded()
+      return lastSyncTime > 0 || !isEmpty
+    }
+
+  /**
+   * Starts the first synchronization, which downloads the whole history, on a pooled thread,
+   * so that it does not block the query which found the index empty
+   */
+  fun startInitialSync(executor: GiteeApiRequestExecutor) {
+    if (initialSync != null) return
+    synchronized(syncLock) {
+      if (initialSync != null) return
+      initialSync = CompletableFuture.runAsync({
+        GiteeApiRateLimiter.computeWithPriority(GiteeApiRateLimiter.Priority.BACKGROUND, ThrowableComputable<Unit, IOException> {
+          sync(executor, EmptyProgressIndicator())
+        })
+      }, ProcessIOExecutorService.INSTANCE).whenComplete { _, error ->
+        if (error != null) {
+          LOG.info("Failed to load issues of $owner/$repo", error)
+          // allow the next query to try again
+          initialSync = null
+        }
+      }
+    }
+  }
+
+  /**
+   * Requests issues updated since the previous synchronization, does nothing if it happened less than [SYNC_INTERVAL_MS] ago
+   */
+  @Throws(IOException::class)
+  fun sync(executor: GiteeApiRequestExecutor, indicator: ProgressIndicator) {
+    sync(indicator) { since, page ->
+      executor.execute(indicator, GiteeApiRequests.Repos.Issues.updatedSince(server, owner, repo, since,
+                                                                            GiteeRequestPagination(page, PAGE_SIZE))).items
+    }
+  }
+
+  /**
+   * Issues are requested in ascending `updated_at` order. Instead of moving to the next page, every full page restarts the query
+   * at its latest `updated_at` minus [SINCE_OVERLAP_MS]: an issue updated while paging moves to the end of the order,
+   * and with offsets it would shift the remaining issues to pages which were already requested.
+   * Only a full page of issues updated at the same time, which can't move the cursor, is followed by the next page number.
+   */
+  @Throws(IOException::class)
+  internal fun sync(indicator: ProgressIndicator, pageLoader: (since: Date?, page: Int) -> List<GiteeIssue>) {
+    synchronized(syncLock) {
+      ensureLoaded()
+      if (System.currentTimeMillis() - lastSyncTime < SYNC_INTERVAL_MS) return
+
+      var since = lock.read { lastUpdated }?.let { Date(it.time - SINCE_OVERLAP_MS) }
+      var page = 1
+      var changed = false
+      while (true) {
+        indicator.checkCanceled()
+        val issues = pageLoader(since, page)
+        if (issues.isNotEmpty()) {
+          lock.write { issues.forEach(::put) }
+          changed = true
+        }
+        if (issues.size < PAGE_SIZE) break
+
+        val nextSince = issues.last().updatedAt?.let { Date(it.time - SINCE_OVERLAP_MS) }
+        if (nextSince != null && (since == null || nextSince.after(since))) {
+          since = nextSince
+          page = 1
+        }
+        else {
+          page++
+        }
+      }
+      lastSyncTime = System.currentTimeMillis()
+      if (changed) save()
+    }
+  }
+
+  /**
+   * Loads the stored copy, if it was not loaded yet
+   */
+  fun ensureLoaded() {
+    if (loaded) return
+    synchronized(syncLock) {
+      if (loaded) return
+      load()
+      loaded = true
+    }
+  }
+
+  fun find(number: String): GiteeIssue? = lock.read { issues[number]?.issue }
+
+  /**
+   * @return issues containing all words of [query] as prefixes of indexed words (or substrings, for words without latin letters),
+   * most recently updated first
+   */
+  fun search(query: String?, withClosed: Boolean, assignee: String?, offset: Int, limit: Int): List<GiteeIssue> {
+    val tokens = query?.let(::tokenize).orEmpty()
+    return lock.read {
+      var candidates: Collection<Entry> = issues.values
+      for (token in tokens) {
+        candidates = if (token.all { it < '\u0080' }) {
+          val numbers = terms.subMap(token, true, token + Char.MAX_VALUE, false).values.flatMapTo(HashSet()) { it }
+          candidates.filter { it.issue.number in numbers }
+        }
+        else {
+          candidates.filter { it.text.contains(token) }
+        }
+        if (candidates.isEmpty()) break
+      }
+
+      candidates.asSequence()
+        .filter { withClosed || it.issue.state != GiteeIssueState.closed }
+        .filter { assignee == null || it.issue.assignee?.login == assignee }
+        .sortedByDescending { it.issue.updatedAt }
+        .drop(offset)
+        .take(limit)
+        .map { it.issue }
+        .toList()
+    }
+  }
+
+  private fun put(issue: GiteeIssue) {
+    issues.remove(issue.number)?.let { old -> old.words.forEach { terms[it]?.remove(issue.number) } }
+
+    val text = listOfNotNull(issue.number, issue.title, issue.body).joinToString(" ").lowercase()
+    val words = tokenize(text).toSet()
+    words.forEach { terms.getOrPut(it) { HashSet() }.add(issue.number) }
+    issues[issue.number] = Entry(issue, text, words)
+
+    val updatedAt = issue.updatedAt
+    if (updatedAt != null && (lastUpdated == null || updatedAt.after(lastUpdated))) lastUpdated = updatedAt
+  }
+
+  private fun load() {
+    try {
+      val loadedIssues = encryptedFiles.read(file) { input ->
+        if (input.readInt() != FORMAT_VERSION) return@read null
+        val json = ByteArray(input.readInt()).also { input.readFully(it) }.toString(Charsets.UTF_8)
+        GiteeApiContentHelper.readJsonList(StringReader(json), GiteeIssue::class.java)
+      } ?: return
+      lock.write { loadedIssues.forEach(::put) }
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to read issues of $owner/$repo from $file", e)
+    }
+  }
+
+  private fun save() {
+    val json = lock.read { GiteeApiContentHelper.toJson(issues.values.map { it.issue }) }.toByteArray(Charsets.UTF_8)
+    try {
+      encryptedFiles.write(file) {
+        it.writeInt(FORMAT_VERSION)
+        it.writeInt(json.size)
+        it.write(json)
+      }
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to store issues of $owner/$repo to $file", e)
+    }
+  }
+
+  private class Entry(val issue: GiteeIssue, val text: String, val words: Set<String>)
+
+  companion object {
+    private val LOG = logger<GiteeIssuesIndex>()
+
+    private const val FORMAT_VERSION = 1
+    private const val SYNC_INTERVAL_MS = 60 * 1000L
+    private const val PAGE_SIZE = GiteeRequestPagination.DEFAULT_PAGE_SIZE
+    private const val SINCE_OVERLAP_MS = 1000L
+    private val WORD_SEPARATOR = Regex("[^\\p{L}\\p{N}]+")
+
+    private fun tokenize(text: String): List<String> = text.lowercase().split(WORD_SEPARATOR).filter { it.isNotEmpty() }
+  }
+}
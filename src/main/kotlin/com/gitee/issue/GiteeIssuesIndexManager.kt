@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.issue
+
+import com.gitee.api.GiteeServerPath
+import com.gitee.util.GiteeEncryptedFiles
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.util.io.DigestUtil
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Holds one [GiteeIssuesIndex] per repository, so that all task servers configured for it share the local copy
+ */
+@Service
+class GiteeIssuesIndexManager {
+
+  private val indexes = ConcurrentHashMap<String, GiteeIssuesIndex>()
+
+  fun getIndex(server: GiteeServerPath, owner: String, repo: String): GiteeIssuesIndex {
+    val key = "${server.toUrl()}/$owner/$repo".lowercase()
+    return indexes.computeIfAbsent(key) {
+      GiteeIssuesIndex(server, owner, repo, PathManager.getSystemDir().resolve(INDEX_DIR_NAME).resolve(DigestUtil.sha256Hex(key.toByteArray())),
+                       GiteeEncryptedFiles.getInstance())
+    }
+  }
+
+  companion object {
+    private const val INDEX_DIR_NAME = "gitee/issues"
+
+    @JvmStatic
+    fun getInstance(): GiteeIssuesIndexManager = service()
+  }
+}
@@ -20,7 +20,9 @@ import com.gitee.api.GiteeApiRequests
 import com.gitee.api.GiteeRepositoryPath
 import com.gitee.api.GiteeServerPath
 import com.gitee.api.data.GiteeIssue
+import com.gitee.api.data.GiteeIssueBase
 import com.gitee.api.data.GiteeSearchedIssue
+import com.gitee.api.data.request.GiteeRequestPagination
 import com.gitee.api.util.GiteeApiPagesLoader
 import com.intellij.openapi.progress.ProgressIndicator
 import java.io.IOException
@@ -59,4 +61,23 @@ object GiteeIssuesLoadingHelper {
         if (withClosed) null else "open", assignee, query)
     )
   }
-}
\ No newline at end of file
+
+  /**
+   * Loads the single page described by [pagination], issues are searched when [query] is not blank
+   */
+  @JvmStatic
+  @Throws(IOException::class)
+  fun loadPage(executor: GiteeApiRequestExecutor, indicator: ProgressIndicator, server: GiteeServerPath,
+               owner: String, repo: String, withClosed: Boolean, assignee: String?, query: String?,
+               pagination: GiteeRequestPagination): List<GiteeIssueBase> {
+    return if (query.isNullOrBlank()) {
+      executor.execute(indicator,
+        GiteeApiRequests.Repos.Issues.get(server, owner, repo, if (withClosed) "all" else "open", assignee, pagination)).items
+    }
+    else {
+      executor.execute(indicator,
+        GiteeApiRequests.Search.Issues.get(server, GiteeRepositoryPath(owner, repo), if (withClosed) null else "open", assignee, query,
+          pagination)).items
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.intellij.openapi.components.service
 import com.intellij.openapi.options.BoundConfigurable
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.ui.DialogPanel
+import com.intellij.ui.components.JBCheckBox
 import com.intellij.ui.dsl.builder.*
 import kotlinx.coroutines.plus
 
@@ -73,6 +74,31 @@ internal class GiteeSettingsConfigurable internal constructor(private val projec
         @Suppress("DialogTitleCapitalization")
         label(GiteeBundle.message("settings.timeout.seconds"))
       }
+      row {
+        checkBox(GiteeBundle.message("settings.http2.transport"))
+          .bindSelected(settings::isHttp2Transport, settings::setHttp2Transport)
+          .comment(GiteeBundle.message("settings.http2.transport.comment"))
+      }
+
+      group(GiteeBundle.message("settings.sync.fork")) {
+        lateinit var narrowFetch: Cell<JBCheckBox>
+        row {
+          narrowFetch = checkBox(GiteeBundle.message("settings.sync.fork.narrow.fetch"))
+            .bindSelected(settings::isSyncForkNarrowFetch, settings::setSyncForkNarrowFetch)
+        }
+        indent {
+          row {
+            checkBox(GiteeBundle.message("settings.sync.fork.fetch.tags"))
+              .bindSelected(settings::isSyncForkFetchTags, settings::setSyncForkFetchTags)
+          }
+          row(GiteeBundle.message("settings.sync.fork.fetch.depth")) {
+            intTextField(range = 0..100_000)
+              .columns(5)
+              .bindIntText(settings::getSyncForkFetchDepth, settings::setSyncForkFetchDepth)
+              .comment(GiteeBundle.message("settings.sync.fork.fetch.depth.comment"))
+          }
+        }.enabledIf(narrowFetch.selected)
+      }
     }
   }
 }
\ No newline at end of file
@@ -13,7 +13,6 @@ import com.gitee.util.*
 import com.intellij.collaboration.async.disposingMainScope
 import com.intellij.collaboration.auth.ui.CompactAccountsPanelFactory
 import com.intellij.collaboration.messages.CollaborationToolsBundle
-import com.intellij.collaboration.ui.CollaborationToolsUIUtil
 import com.intellij.collaboration.util.CollectionDelta
 import com.intellij.dvcs.repo.ClonePathProvider
 import com.intellij.dvcs.ui.CloneDvcsValidationUtils
@@ -38,6 +37,7 @@ import com.intellij.openapi.vfs.LocalFileSystem
 import com.intellij.openapi.wm.IdeFocusManager
 import com.intellij.ui.CollectionListModel
 import com.intellij.ui.DocumentAdapter
+import com.intellij.ui.ScrollingUtil
 import com.intellij.ui.SearchTextField
 import com.intellij.ui.components.JBList
 import com.intellij.ui.components.panels.Wrapper
@@ -106,6 +106,7 @@ internal abstract class GECloneDialogExtensionComponentBase(
 
   // state
   private val loader = GECloneDialogRepositoryListLoaderImpl()
+  private val filteringModel = GECloneDialogRepositoryListFilteringModel(loader.listModel)
   private var inLoginState = false
   private var selectedUrl by Delegates.observable<String?>(null) { _, _, _ -> onSelectedUrlChanged() }
 
@@ -114,10 +115,10 @@ internal abstract class GECloneDialogExtensionComponentBase(
   private val accountListModel: ListModel<GiteeAccount> = createAccountsModel()
 
   init {
-    repositoryList = JBList(loader.listModel).apply {
+    repositoryList = JBList(filteringModel).apply {
       cellRenderer = GERepositoryListCellRenderer(ErrorHandler()) { getAccounts() }
       isFocusable = false
-      selectionModel = loader.listSelectionModel
+      selectionModel = filteringModel.selectionModel
     }.also {
       val mouseAdapter = GERepositoryMouseAdapter(it)
       it.addMouseListener(mouseAdapter)
@@ -128,7 +129,6 @@ internal abstract class GECloneDialogExtensionComponentBase(
       }
     }
 
-    //TODO: fix jumping selection in the presence of filter
     loader.addLoadingStateListener {
       repositoryList.setPaintBusy(loader.loading)
     }
@@ -140,12 +140,14 @@ internal abstract class GECloneDialogExtensionComponentBase(
       createFocusFilterFieldAction(it)
     }
 
-    CollaborationToolsUIUtil.attachSearch(repositoryList, searchField) {
-      when (it) {
-        is GERepositoryListItem.Repo -> it.repo.fullName
-        is GERepositoryListItem.Error -> ""
+    // repositories are matched by the search index of the model instead of checking every item on each keystroke
+    searchField.addDocumentListener(object : DocumentAdapter() {
+      override fun textChanged(e: DocumentEvent) {
+        filteringModel.query = searchField.text
+        loader.searchRepositories(searchField.text, filteringModel::setRemoteMatches)
       }
-    }
+    })
+    ScrollingUtil.installActions(repositoryList, searchField.textEditor)
 
     @Suppress("LeakingThis")
     val parentDisposable: Disposable = this
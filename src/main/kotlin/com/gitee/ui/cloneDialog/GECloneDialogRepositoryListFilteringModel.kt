@@ -0,0 +1,105 @@
+package com.gitee.ui.cloneDialog
+
+import com.intellij.ui.SingleSelectionModel
+import javax.swing.AbstractListModel
+import javax.swing.event.ListDataEvent
+import javax.swing.event.ListDataListener
+
+/**
+ * Shows all items of [source] for an empty [query], otherwise repositories found by [GECloneDialogRepositoryListModel.searchIndex]
+ * followed by the section of repositories found on the server which are not among the local matches.
+ *
+ * Indexes of the filtered list have nothing in common with indexes of [source], so the list selection is kept in [selectionModel]
+ * and follows the selected item when the matches are recalculated.
+ */
+internal class GECloneDialogRepositoryListFilteringModel(private val source: GECloneDialogRepositoryListModel)
+  : AbstractListModel<GERepositoryListItem>() {
+
+  val selectionModel = SingleSelectionModel()
+
+  private var matches: List<GERepositoryListItem>? = null
+  private var remoteMatches: List<GERepositoryListItem.Repo> = emptyList()
+
+  /**
+   * Index of the first repository found on the server, -1 if there are none
+   */
+  var remoteSectionStart: Int = -1
+    private set
+
+  var query: String = ""
+    set(value) {
+      if (field == value) return
+      field = value
+      remoteMatches = emptyList()
+      refilter()
+    }
+
+  init {
+    source.addListDataListener(object : ListDataListener {
+      override fun intervalAdded(e: ListDataEvent) {
+        if (matches == null) fireIntervalAdded(this@GECloneDialogRepositoryListFilteringModel, e.index0, e.index1)
+        else refilter()
+      }
+
+      override fun intervalRemoved(e: ListDataEvent) {
+        if (matches == null) fireIntervalRemoved(this@GECloneDialogRepositoryListFilteringModel, e.index0, e.index1)
+        else refilter()
+      }
+
+      override fun contentsChanged(e: ListDataEvent) {
+        if (matches == null) fireContentsChanged(this@GECloneDialogRepositoryListFilteringModel, e.index0, e.index1)
+        else refilter()
+      }
+    })
+  }
+
+  override fun getSize(): Int = matches?.size ?: source.size
+
+  override fun getElementAt(index: Int): GERepositoryListItem = matches?.get(index) ?: source.getElementAt(index)
+
+  /**
+   * Results of the server search for [query], ignored if the query has changed since
+   */
+  fun setRemoteMatches(query: String, repos: List<GERepositoryListItem.Repo>) {
+    if (query != this.query) return
+    remoteMatches = repos
+    refilter()
+  }
+
+  private fun refilter() {
+    val selectedItem = selectionModel.leadSelectionIndex.takeIf { !selectionModel.isSelectionEmpty && it in 0 until size }
+      ?.let(::getElementAt)
+
+    val oldSize = size
+    if (query.isBlank()) {
+      matches = null
+      remoteSectionStart = -1
+    }
+    else {
+      val localMatches = source.searchIndex.search(query)
+      val localSet = localMatches.toHashSet()
+      val remoteOnly = remoteMatches.filter { it !in localSet }
+      matches = localMatches + remoteOnly
+      remoteSectionStart = if (remoteOnly.isEmpty()) -1 else localMatches.size
+    }
+    val newSize = size
+
+    // the list moves the selection by index while the events are fired, listeners get only the restored one
+    selectionModel.valueIsAdjusting = true
+    try {
+      if (oldSize > newSize) fireIntervalRemoved(this, newSize, oldSize - 1)
+      else if (newSize > oldSize) fireIntervalAdded(this, oldSize, newSize - 1)
+      val changed = minOf(oldSize, newSize)
+      if (changed > 0) fireContentsChanged(this, 0, changed - 1)
+
+      val selectedIdx = selectedItem?.let(::indexOf) ?: -1
+      if (selectedIdx >= 0) selectionModel.setSelectionInterval(selectedIdx, selectedIdx)
+      else selectionModel.clearSelection()
+    }
+    finally {
+      selectionModel.valueIsAdjusting = false
+    }
+  }
+
+  private fun indexOf(item: GERepositoryListItem): Int = matches?.indexOf(item) ?: source.indexOf(item.account, item)
+}
@@ -1,39 +1,51 @@
 package com.gitee.ui.cloneDialog
 
+import com.gitee.api.GEApiRequestExecutorRegistry
 import com.gitee.api.GiteeApiRequestExecutor
 import com.gitee.api.GiteeApiRequests
+import com.gitee.api.GiteeServerPath
+import com.gitee.api.data.GiteeAuthenticatedUser
 import com.gitee.api.data.GiteeRepo
 import com.gitee.api.data.request.Affiliation
 import com.gitee.api.data.request.GiteeRequestPagination
 import com.gitee.api.util.GiteeApiPagesLoader
-import com.gitee.authentication.accounts.GEAccountManager
 import com.gitee.authentication.accounts.GiteeAccount
 import com.gitee.exceptions.GiteeMissingTokenException
 import com.intellij.collaboration.async.CompletableFutureUtil.errorOnEdt
 import com.intellij.collaboration.async.CompletableFutureUtil.submitIOTask
+import com.intellij.collaboration.async.CompletableFutureUtil.successOnEdt
 import com.intellij.collaboration.ui.SimpleEventListener
+import com.intellij.execution.process.ProcessIOExecutorService
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ModalityState
 import com.intellij.openapi.application.runInEdt
-import com.intellij.openapi.components.service
 import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.progress.ProgressIndicator
 import com.intellij.openapi.progress.ProgressManager
-import com.intellij.ui.SingleSelectionModel
+import com.intellij.openapi.progress.SensitiveProgressWrapper
+import com.intellij.util.Alarm
 import com.intellij.util.EventDispatcher
-import kotlinx.coroutines.runBlocking
-import javax.swing.ListSelectionModel
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
 
 internal class GECloneDialogRepositoryListLoaderImpl : GECloneDialogRepositoryListLoader, Disposable {
 
   private val indicatorsMap = mutableMapOf<GiteeAccount, ProgressIndicator>()
   private val loadingEventDispatcher = EventDispatcher.create(SimpleEventListener::class.java)
 
+  // pages loaded by concurrent requests are added to the model together by a single EDT update
+  private val pendingPages = ConcurrentLinkedQueue<LoadedPage>()
+  private val flushScheduled = AtomicBoolean()
+
+  private val remoteSearchAlarm = Alarm(Alarm.ThreadToUse.SWING_THREAD, this)
+  private var remoteSearchIndicator: ProgressIndicator? = null
+
   override val loading: Boolean
     get() = indicatorsMap.isNotEmpty()
 
   override val listModel = GECloneDialogRepositoryListModel()
-  override val listSelectionModel = SingleSelectionModel()
 
   override fun loadRepositories(account: GiteeAccount) {
     if (indicatorsMap.containsKey(account)) return
@@ -43,8 +55,14 @@ internal class GECloneDialogRepositoryListLoaderImpl : GECloneDialogRepositoryLi
     loadingEventDispatcher.multicaster.eventOccurred()
 
     ProgressManager.getInstance().submitIOTask(indicator) {
-      val credentials = runBlocking { service<GEAccountManager>().findCredentials(account) }?: throw GiteeMissingTokenException(account)
-      val executor = service<GiteeApiRequestExecutor.Factory>().create(credentials)
+      // the last loaded list is shown right away and then revalidated
+      val snapshots = GECloneDialogRepositoryListSnapshots.getInstance()
+      val snapshot = snapshots.load(account)
+      if (snapshot != null) {
+        queuePage(LoadedPage(account, snapshot.details, snapshot.repos, indicator))
+      }
+
+      val executor = GEApiRequestExecutorRegistry.getInstance().findExecutor(account) ?: throw GiteeMissingTokenException(account)
 
       val details = executor.execute(indicator, GiteeApiRequests.CurrentUser.get(account.server))
 
@@ -56,34 +74,95 @@ internal class GECloneDialogRepositoryListLoaderImpl : GECloneDialogRepositoryLi
           Affiliation.ENTERPRISE_MEMBER,
         ),
         pagination = GiteeRequestPagination.DEFAULT)
+      val loadedRepos = ConcurrentLinkedQueue<GiteeRepo>()
       val pageItemsConsumer: (List<GiteeRepo>) -> Unit = {
         indicator.checkCanceled()
-        runInEdt {
-          indicator.checkCanceled()
-          preservingSelection(listModel, listSelectionModel) {
-            listModel.addRepositories(account, details, it)
-          }
-        }
+        loadedRepos.addAll(it)
+        queuePage(LoadedPage(account, details, it, indicator))
       }
-      GiteeApiPagesLoader.loadAll(executor, indicator, repoPagesRequest, pageItemsConsumer)
 
-      val orgsRequest = GiteeApiRequests.CurrentUser.Orgs.pages(account.server)
-      val userOrganizations = GiteeApiPagesLoader.loadAll(executor, indicator, orgsRequest).sortedBy { it.login }
+      // organisations are listed and loaded while the user repositories are still coming
+      val orgsIndicator = SensitiveProgressWrapper(indicator)
+      val orgsFuture = CompletableFuture.runAsync({
+        ProgressManager.getInstance().runProcess(Runnable {
+          loadOrganisationsRepositories(executor, orgsIndicator, account.server, pageItemsConsumer)
+        }, orgsIndicator)
+      }, ProcessIOExecutorService.INSTANCE)
+
+      try {
+        GiteeApiPagesLoader.loadAll(executor, indicator, repoPagesRequest, GiteeApiPagesLoader.DEFAULT_PARALLELISM, pageItemsConsumer)
+        await(orgsFuture, indicator)
+      }
+      finally {
+        orgsIndicator.cancel()
+      }
 
-      for (org in userOrganizations) {
-        val orgRepoRequest = GiteeApiRequests.Organisations.Repos.pages(account.server, org.login, GiteeRequestPagination.DEFAULT)
-        GiteeApiPagesLoader.loadAll(executor, indicator, orgRepoRequest, pageItemsConsumer)
+      val repos = LinkedHashSet(loadedRepos)
+      if (snapshot != null) {
+        val removedRepos = snapshot.repos.filterNot(repos::contains)
+        if (removedRepos.isNotEmpty()) queuePage(LoadedPage(account, details, emptyList(), indicator, removedRepos))
       }
+      snapshots.save(account, GECloneDialogRepositoryListSnapshots.Snapshot(details, repos.toList()))
     }.whenComplete { _, _ ->
       indicatorsMap.remove(account)
       loadingEventDispatcher.multicaster.eventOccurred()
     }.errorOnEdt(ModalityState.any()) {
-      preservingSelection(listModel, listSelectionModel) {
-        listModel.setError(account, it)
-      }
+      listModel.setError(account, it)
     }
   }
 
+  private fun queuePage(page: LoadedPage) {
+    pendingPages.add(page)
+    if (flushScheduled.compareAndSet(false, true)) {
+      runInEdt { flushPendingPages() }
+    }
+  }
+
+  private fun flushPendingPages() {
+    flushScheduled.set(false)
+
+    val pages = mutableListOf<LoadedPage>()
+    while (true) {
+      val page = pendingPages.poll() ?: break
+      if (!page.indicator.isCanceled) pages.add(page)
+    }
+    if (pages.isEmpty()) return
+
+    for ((account, accountPages) in pages.groupBy { it.account }) {
+      listModel.addRepositories(account, accountPages.last().details, accountPages.flatMap { it.repos })
+      listModel.removeRepositories(account, accountPages.flatMap { it.removedRepos })
+    }
+  }
+
+  /**
+   * Searches repositories of the loaded accounts on the server once [query] stays unchanged for a while,
+   * a search for the previous query is cancelled
+   */
+  fun searchRepositories(query: String, resultConsumer: (query: String, repos: List<GERepositoryListItem.Repo>) -> Unit) {
+    remoteSearchAlarm.cancelAllRequests()
+    remoteSearchIndicator?.cancel()
+    remoteSearchIndicator = null
+    if (query.isBlank()) return
+
+    remoteSearchAlarm.addRequest({
+      val accounts = listModel.loadedAccounts.mapNotNull { account -> listModel.getDetails(account)?.let { account to it } }
+      if (accounts.isEmpty()) return@addRequest
+
+      val indicator = EmptyProgressIndicator()
+      remoteSearchIndicator = indicator
+      ProgressManager.getInstance().submitIOTask(indicator) {
+        accounts.flatMap { (account, details) ->
+          val executor = GEApiRequestExecutorRegistry.getInstance().findExecutor(account) ?: return@flatMap emptyList()
+          val pagination = GiteeRequestPagination(pageSize = REMOTE_SEARCH_LIMIT)
+          executor.execute(indicator, GiteeApiRequests.CurrentUser.Repos.search(account.server, query.trim(), pagination)).items
+            .map { GERepositoryListItem.Repo(account, details, it) }
+        }
+      }.successOnEdt(ModalityState.any()) {
+        if (!indicator.isCanceled) resultConsumer(query, it)
+      }
+    }, REMOTE_SEARCH_DELAY_MS)
+  }
+
   override fun clear(account: GiteeAccount) {
     indicatorsMap[account]?.cancel()
     listModel.clear(account)
@@ -94,28 +173,94 @@ internal class GECloneDialogRepositoryListLoaderImpl : GECloneDialogRepositoryLi
 
   override fun dispose() {
     indicatorsMap.forEach { (_, indicator) -> indicator.cancel() }
+    remoteSearchIndicator?.cancel()
     loadingEventDispatcher.multicaster.eventOccurred()
   }
 
+  private class LoadedPage(val account: GiteeAccount,
+                           val details: GiteeAuthenticatedUser,
+                           val repos: List<GiteeRepo>,
+                           val indicator: ProgressIndicator,
+                           val removedRepos: List<GiteeRepo> = emptyList())
+
   companion object {
-    private fun preservingSelection(listModel: GECloneDialogRepositoryListModel, selectionModel: ListSelectionModel, action: () -> Unit) {
-      val selection = if (selectionModel.isSelectionEmpty) {
-        null
+    /**
+     * Maximum number of organisations whose repositories are loaded at the same time from one server
+     */
+    private const val MAX_CONCURRENT_ORGANISATIONS_PER_SERVER = 4
+    private const val AWAIT_TIMEOUT_MS = 50L
+
+    private const val REMOTE_SEARCH_DELAY_MS = 300
+    private const val REMOTE_SEARCH_LIMIT = 20
+
+    private val serverPermits = ConcurrentHashMap<GiteeServerPath, Semaphore>()
+
+    private fun loadOrganisationsRepositories(executor: GiteeApiRequestExecutor,
+                                              indicator: ProgressIndicator,
+                                              server: GiteeServerPath,
+                                              pageItemsConsumer: (List<GiteeRepo>) -> Unit) {
+      val orgsRequest = GiteeApiRequests.CurrentUser.Orgs.pages(server)
+      val userOrganizations = GiteeApiPagesLoader.loadAll(executor, indicator, orgsRequest).sortedBy { it.login }
+      val permits = serverPermits.computeIfAbsent(server) { Semaphore(MAX_CONCURRENT_ORGANISATIONS_PER_SERVER) }
+
+      // every organisation has its own indicator: the one it would share is started and stopped by each of them,
+      // the first failure cancels the remaining organisations and is reported instead of their cancellation
+      val failure = AtomicReference<Throwable>()
+      val orgIndicators = userOrganizations.map { SensitiveProgressWrapper(indicator) }
+      val futures = userOrganizations.zip(orgIndicators) { org, orgIndicator ->
+        CompletableFuture.runAsync({
+          ProgressManager.getInstance().runProcess(Runnable {
+            acquire(permits, orgIndicator)
+            try {
+              val orgRepoRequest = GiteeApiRequests.Organisations.Repos.pages(server, org.login, GiteeRequestPagination.DEFAULT)
+              GiteeApiPagesLoader.loadAll(executor, orgIndicator, orgRepoRequest, GiteeApiPagesLoader.DEFAULT_PARALLELISM,
+                                          pageItemsConsumer)
+            }
+            finally {
+              permits.release()
+            }
+          }, orgIndicator)
+        }, ProcessIOExecutorService.INSTANCE).whenComplete { _, error ->
+          if (error != null && failure.compareAndSet(null, (error as? CompletionException)?.cause ?: error)) {
+            orgIndicators.forEach(ProgressIndicator::cancel)
+          }
+        }
       }
-      else {
-        selectionModel.leadSelectionIndex.let {
-          if (it < 0 || listModel.size == 0) null
-          else listModel.getItemAt(it)
+      try {
+        for (future in futures) {
+          await(future, indicator)
         }
       }
-      action()
-      if (selection != null) {
-        val (account, item) = selection
-        val newIdx = listModel.indexOf(account, item)
-        if (newIdx >= 0) {
-          selectionModel.setSelectionInterval(newIdx, newIdx)
+      catch (e: ProcessCanceledException) {
+        throw failure.get() ?: e
+      }
+      finally {
+        orgIndicators.forEach(ProgressIndicator::cancel)
+      }
+    }
+
+    private fun acquire(permits: Semaphore, indicator: ProgressIndicator) {
+      while (!permits.tryAcquire(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        indicator.checkCanceled()
+      }
+    }
+
+    /**
+     * Waits for [future] checking [indicator], a failure of the future is rethrown as is
+     */
+    private fun <T> await(future: CompletableFuture<T>, indicator: ProgressIndicator): T {
+      while (true) {
+        try {
+          return future.get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        }
+        catch (e: TimeoutException) {
+          indicator.checkCanceled()
+        }
+        catch (e: ExecutionException) {
+          throw e.cause ?: e
         }
       }
     }
+
   }
 }
\ No newline at end of file
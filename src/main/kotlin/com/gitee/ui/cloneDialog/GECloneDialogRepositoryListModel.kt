@@ -4,111 +4,225 @@ import com.gitee.api.data.GiteeAuthenticatedUser
 import com.gitee.api.data.GiteeRepo
 import com.gitee.authentication.accounts.GiteeAccount
 import javax.swing.AbstractListModel
+import kotlin.math.max
+import kotlin.math.min
 
+/**
+ * Items of all accounts in one list, an account error goes first and then the repositories in the order they were loaded.
+ *
+ * Swing asks for elements per painted cell and for indexes on every selection change,
+ * so lookups use the start offsets of accounts (binary search) and positions of repositories instead of scanning the lists.
+ */
 internal class GECloneDialogRepositoryListModel : AbstractListModel<GERepositoryListItem>() {
 
-  private val itemsByAccount = LinkedHashMap<GiteeAccount, MutableList<GERepositoryListItem>>()
-  private val repositoriesByAccount = hashMapOf<GiteeAccount, MutableSet<GiteeRepo>>()
+  private val accounts = ArrayList<GiteeAccount>()
+  private val itemsByAccount = HashMap<GiteeAccount, AccountItems>()
+  // offsets[i] is the index of the first item of accounts[i], offsets[accounts.size] is the size of the model
+  private var offsets = IntArray(1)
 
-  override fun getSize(): Int = itemsByAccount.values.sumOf { it.size }
+  val searchIndex = GERepositorySearchIndex()
+
+  override fun getSize(): Int = offsets[accounts.size]
 
   override fun getElementAt(index: Int): GERepositoryListItem {
-    var offset = 0
-    for ((_, items) in itemsByAccount) {
-      if (index >= offset + items.size) {
-        offset += items.size
-        continue
-      }
-      return items[index - offset]
-    }
-    throw IndexOutOfBoundsException(index)
+    val accountIdx = findAccountIndex(index)
+    return itemsByAccount.getValue(accounts[accountIdx])[index - offsets[accountIdx]]
   }
 
+  val loadedAccounts: List<GiteeAccount>
+    get() = accounts.toList()
+
+  fun getDetails(account: GiteeAccount): GiteeAuthenticatedUser? = itemsByAccount[account]?.details
+
   fun getItemAt(index: Int): Pair<GiteeAccount, GERepositoryListItem> {
-    var offset = 0
-    for ((account, items) in itemsByAccount) {
-      if (index >= offset + items.size) {
-        offset += items.size
-        continue
-      }
-      return account to items[index - offset]
-    }
-    throw IndexOutOfBoundsException(index)
+    val accountIdx = findAccountIndex(index)
+    val account = accounts[accountIdx]
+    return account to itemsByAccount.getValue(account)[index - offsets[accountIdx]]
   }
 
   fun indexOf(account: GiteeAccount, item: GERepositoryListItem): Int {
-    if (!itemsByAccount.containsKey(account)) return -1
-    var startOffset = 0
-    for ((_account, items) in itemsByAccount) {
-      if (_account == account) {
-        val idx = items.indexOf(item)
-        if (idx < 0) return -1
-        return startOffset + idx
-      }
-      else {
-        startOffset += items.size
-      }
-    }
-    return -1
+    val items = itemsByAccount[account] ?: return -1
+    val idx = items.indexOf(item)
+    if (idx < 0) return -1
+    return offsets[accounts.indexOf(account)] + idx
   }
 
   fun clear(account: GiteeAccount) {
-    repositoriesByAccount.remove(account)
-    val (startOffset, endOffset) = findAccountOffsets(account) ?: return
-    itemsByAccount.remove(account)
-    fireIntervalRemoved(this, startOffset, endOffset)
+    val accountIdx = accounts.indexOf(account)
+    if (accountIdx < 0) return
+    val startOffset = offsets[accountIdx]
+    val endOffset = offsets[accountIdx + 1]
+    accounts.removeAt(accountIdx)
+    itemsByAccount.remove(account)?.repos?.forEach(searchIndex::remove)
+    updateOffsets(accountIdx)
+    if (endOffset > startOffset) fireIntervalRemoved(this, startOffset, endOffset - 1)
   }
 
   fun setError(account: GiteeAccount, error: Throwable) {
-    val accountItems = itemsByAccount.getOrPut(account) { mutableListOf() }
-    val (startOffset, endOffset) = findAccountOffsets(account) ?: return
-    val errorItem = GERepositoryListItem.Error(account, error)
-    accountItems.add(0, errorItem)
-    fireIntervalAdded(this, endOffset, endOffset + 1)
-    fireContentsChanged(this, startOffset, endOffset + 1)
+    val items = getOrCreateItems(account)
+    val startOffset = offsets[accounts.indexOf(account)]
+    val hadError = items.error != null
+    items.error = GERepositoryListItem.Error(account, error)
+    if (hadError) {
+      fireContentsChanged(this, startOffset, startOffset)
+    }
+    else {
+      updateOffsets(accounts.indexOf(account))
+      fireIntervalAdded(this, startOffset, startOffset)
+    }
   }
 
   /**
-   * Since each repository can be in several states at the same time (shared access for a collaborator and shared access for org member) and
-   * repositories for collaborators are loaded in separate request before repositories for org members, we need to update order of re-added
-   * repo in order to place it close to other organization repos
+   * Since each repository can be in several states at the same time (shared access for a collaborator and shared access for org member)
+   * and is loaded by several requests, repositories already present for the account are not added again.
+   * They are replaced if they have changed, e.g. a repository shown from a snapshot was renamed since.
+   * New repositories are appended to the account items with a single event.
    */
   fun addRepositories(account: GiteeAccount, details: GiteeAuthenticatedUser, repos: List<GiteeRepo>) {
-    val repoSet = repositoriesByAccount.getOrPut(account) { mutableSetOf() }
-    val items = itemsByAccount.getOrPut(account) { mutableListOf() }
-    var (startOffset, endOffset) = findAccountOffsets(account) ?: return
+    val items = getOrCreateItems(account)
+    items.details = details
+    val accountIdx = accounts.indexOf(account)
+    val startOffset = offsets[accountIdx]
+    val endOffset = offsets[accountIdx + 1]
 
-    val toAdd = mutableListOf<GERepositoryListItem.Repo>()
+    var added = 0
+    var firstReplaced = Int.MAX_VALUE
+    var lastReplaced = -1
     for (repo in repos) {
       val item = GERepositoryListItem.Repo(account, details, repo)
-      val isNew = repoSet.add(repo)
-      if (isNew) {
-        toAdd.add(item)
+      val existing = items.find(repo)
+      if (existing == null) {
+        items.add(item)
+        searchIndex.add(item)
+        added++
+      }
+      else if (!isSameContent(existing.repo, repo)) {
+        val idx = items.replace(item)
+        // items are equal by repository id, so the old one is still found in the index
+        searchIndex.remove(existing)
+        searchIndex.add(item)
+        firstReplaced = min(firstReplaced, idx)
+        lastReplaced = max(lastReplaced, idx)
       }
-//      else {
-//        val idx = items.indexOf(item)
-//        items.removeAt(idx)
-//        fireIntervalRemoved(this, startOffset + idx, startOffset + idx)
-//        endOffset--
-//      }
     }
-    items.addAll(toAdd)
-    fireIntervalAdded(this, endOffset, endOffset + toAdd.size)
+    if (lastReplaced >= 0) fireContentsChanged(this, startOffset + firstReplaced, startOffset + lastReplaced)
+    if (added == 0) return
+
+    updateOffsets(accountIdx)
+    fireIntervalAdded(this, endOffset, endOffset + added - 1)
   }
 
-  private fun findAccountOffsets(account: GiteeAccount): Pair<Int, Int>? {
-    if (!itemsByAccount.containsKey(account)) return null
-    var startOffset = 0
-    var endOffset = 0
-    for ((_account, items) in itemsByAccount) {
-      endOffset = startOffset + items.size
-      if (_account == account) {
-        break
-      }
-      else {
-        startOffset += items.size
+  /**
+   * Removes repositories of the account which are no longer available
+   */
+  fun removeRepositories(account: GiteeAccount, repos: Collection<GiteeRepo>) {
+    val items = itemsByAccount[account] ?: return
+    val removedRepos = repos.toHashSet()
+    items.repos.filter { it.repo in removedRepos }.forEach(searchIndex::remove)
+    val removedIndexes = items.removeAll(removedRepos)
+    if (removedIndexes.isEmpty()) return
+
+    val accountIdx = accounts.indexOf(account)
+    updateOffsets(accountIdx)
+    val startOffset = offsets[accountIdx]
+    for (idx in removedIndexes.asReversed()) {
+      fireIntervalRemoved(this, startOffset + idx, startOffset + idx)
+    }
+  }
+
+  private fun getOrCreateItems(account: GiteeAccount): AccountItems =
+    itemsByAccount.getOrPut(account) {
+      accounts.add(account)
+      offsets = offsets.copyOf(accounts.size + 1).also { it[accounts.size] = it[accounts.size - 1] }
+      AccountItems()
+    }
+
+  /**
+   * Recalculates offsets of accounts after [fromAccountIdx], which is the only account whose size has changed
+   */
+  private fun updateOffsets(fromAccountIdx: Int) {
+    if (offsets.size != accounts.size + 1) offsets = offsets.copyOf(accounts.size + 1)
+    for (i in fromAccountIdx until accounts.size) {
+      offsets[i + 1] = offsets[i] + itemsByAccount.getValue(accounts[i]).size
+    }
+  }
+
+  /**
+   * @return index of the last account starting at or before [index], empty accounts share the start with the next one
+   */
+  private fun findAccountIndex(index: Int): Int {
+    if (index < 0 || index >= size) throw IndexOutOfBoundsException(index)
+    var low = 0
+    var high = accounts.size - 1
+    while (low < high) {
+      val mid = (low + high + 1) ushr 1
+      if (offsets[mid] <= index) low = mid else high = mid - 1
+    }
+    return low
+  }
+
+  private fun isSameContent(old: GiteeRepo, new: GiteeRepo): Boolean =
+    old.fullName == new.fullName &&
+    old.humanName == new.humanName &&
+    old.description == new.description &&
+    old.isPrivate == new.isPrivate &&
+    old.htmlUrl == new.htmlUrl &&
+    old.namespace?.path == new.namespace?.path
+
+  private class AccountItems {
+    var error: GERepositoryListItem.Error? = null
+    var details: GiteeAuthenticatedUser? = null
+    val repos = ArrayList<GERepositoryListItem.Repo>()
+    private val positions = HashMap<GiteeRepo, Int>()
+
+    val size: Int
+      get() = repos.size + if (error != null) 1 else 0
+
+    operator fun get(index: Int): GERepositoryListItem {
+      val error = error ?: return repos[index]
+      return if (index == 0) error else repos[index - 1]
+    }
+
+    fun indexOf(item: GERepositoryListItem): Int {
+      val shift = if (error != null) 1 else 0
+      return when (item) {
+        is GERepositoryListItem.Error -> if (item == error) 0 else -1
+        is GERepositoryListItem.Repo -> positions[item.repo]?.takeIf { repos[it] == item }?.plus(shift) ?: -1
       }
     }
-    return startOffset to endOffset
+
+    fun find(repo: GiteeRepo): GERepositoryListItem.Repo? = positions[repo]?.let { repos[it] }
+
+    fun add(item: GERepositoryListItem.Repo): Boolean {
+      if (positions.putIfAbsent(item.repo, repos.size) != null) return false
+      repos.add(item)
+      return true
+    }
+
+    /**
+     * @return index of the replaced item
+     */
+    fun replace(item: GERepositoryListItem.Repo): Int {
+      val position = positions.getValue(item.repo)
+      repos[position] = item
+      // the key is equal, but refers to the old repository
+      positions.remove(item.repo)
+      positions[item.repo] = position
+      return position + if (error != null) 1 else 0
+    }
+
+    /**
+     * @return former indexes of the removed items in ascending order
+     */
+    fun removeAll(removed: Set<GiteeRepo>): List<Int> {
+      val shift = if (error != null) 1 else 0
+      val indexes = removed.mapNotNull { positions[it]?.plus(shift) }.sorted()
+      if (indexes.isEmpty()) return indexes
+
+      repos.removeIf { it.repo in removed }
+      positions.clear()
+      repos.forEachIndexed { idx, item -> positions[item.repo] = idx }
+      return indexes
+    }
   }
-}
\ No newline at end of file
+}
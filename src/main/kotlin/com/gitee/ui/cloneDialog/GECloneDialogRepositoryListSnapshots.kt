@@ -0,0 +1,105 @@
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.data.GiteeAuthenticatedUser
+import com.gitee.api.data.GiteeRepo
+import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.util.GiteeEncryptedFiles
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.StringReader
+import java.nio.file.Path
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.listDirectoryEntries
+import kotlin.io.path.name
+
+/**
+ * Last loaded repositories of each account, shown by the clone dialog while the list is being reloaded.
+ *
+ * Snapshots list private repositories, so they are encrypted (see [GiteeEncryptedFiles]) and dropped with the account.
+ */
+@Service
+internal class GECloneDialogRepositoryListSnapshots internal constructor(private val snapshotsDir: Path,
+                                                                         private val encryptedFiles: GiteeEncryptedFiles) {
+
+  constructor() : this(PathManager.getSystemDir().resolve(SNAPSHOTS_DIR_NAME), GiteeEncryptedFiles.getInstance())
+
+  class Snapshot(val details: GiteeAuthenticatedUser, val repos: List<GiteeRepo>)
+
+  fun load(account: GiteeAccount): Snapshot? {
+    val file = getFile(account)
+    return try {
+      encryptedFiles.read(file) { stream ->
+        DataInputStream(GZIPInputStream(stream)).use { input ->
+          if (input.readInt() != FORMAT_VERSION) return@read null
+          val details = GiteeApiContentHelper.fromJson(input.readJson(), GiteeAuthenticatedUser::class.java)
+          val repos = GiteeApiContentHelper.readJsonList(StringReader(input.readJson()), GiteeRepo::class.java)
+          Snapshot(details, repos)
+        }
+      }
+    }
+    catch (e: Exception) {
+      LOG.warn("Failed to read repositories of $account from $file", e)
+      null
+    }
+  }
+
+  fun save(account: GiteeAccount, snapshot: Snapshot) {
+    val file = getFile(account)
+    try {
+      encryptedFiles.write(file) { stream ->
+        DataOutputStream(GZIPOutputStream(stream)).use {
+          it.writeInt(FORMAT_VERSION)
+          it.writeJson(GiteeApiContentHelper.toJson(snapshot.details))
+          it.writeJson(GiteeApiContentHelper.toJson(snapshot.repos))
+        }
+      }
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to store repositories of $account to $file", e)
+    }
+  }
+
+  /**
+   * Deletes snapshots of all accounts except [accountIds]
+   */
+  fun retainAccounts(accountIds: Collection<String>) {
+    if (!snapshotsDir.exists()) return
+    val retained = accountIds.toHashSet()
+    try {
+      for (file in snapshotsDir.listDirectoryEntries()) {
+        if (file.name !in retained) file.deleteIfExists()
+      }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to clean up repository snapshots", e)
+    }
+  }
+
+  private fun getFile(account: GiteeAccount): Path = snapshotsDir.resolve(account.id)
+
+  companion object {
+    private val LOG = logger<GECloneDialogRepositoryListSnapshots>()
+
+    private const val FORMAT_VERSION = 1
+    private const val SNAPSHOTS_DIR_NAME = "gitee/repositories"
+
+    fun getInstance(): GECloneDialogRepositoryListSnapshots = service()
+
+    private fun DataInputStream.readJson(): String = ByteArray(readInt()).also { readFully(it) }.toString(Charsets.UTF_8)
+
+    private fun DataOutputStream.writeJson(json: String) {
+      val bytes = json.toByteArray(Charsets.UTF_8)
+      writeInt(bytes.size)
+      write(bytes)
+    }
+  }
+}
@@ -2,6 +2,7 @@
 package com.gitee.ui.cloneDialog
 
 import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.i18n.GiteeBundle
 import com.gitee.ui.util.getName
 import com.intellij.ui.CellRendererPanel
 import com.intellij.ui.ColoredListCellRenderer
@@ -27,6 +28,9 @@ class GERepositoryListCellRenderer(private val errorHandler: ErrorHandler,
                                             selected: Boolean,
                                             hasFocus: Boolean): Component {
     val component = super.getListCellRendererComponent(list, value, index, selected, hasFocus)
+    if ((list.model as? GECloneDialogRepositoryListFilteringModel)?.remoteSectionStart == index) {
+      return nameRenderer.withName(GiteeBundle.message("clone.dialog.search.server.results"), component, index != 0)
+    }
     if (showAccountNameAbove(list, index)) {
       val name = with(value) {
         if (account.server.isGiteeDotCom()) account.name else ("${account.server.host}/${account.name}")
@@ -0,0 +1,158 @@
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.data.GiteeRepo
+
+/**
+ * Trigram index over names, namespaces and descriptions of repositories in the clone dialog.
+ *
+ * Every word of a query must be found in one of the fields, candidates are taken from the intersection of posting lists
+ * of the query trigrams, so a query only touches repositories sharing all of them.
+ * Words shorter than a trigram are checked against every repository.
+ */
+internal class GERepositorySearchIndex {
+
+  private val items = ArrayList<GERepositoryListItem.Repo?>()
+  private val fields = ArrayList<RepoFields?>()
+  private val ids = HashMap<GERepositoryListItem.Repo, Int>()
+  private val postings = HashMap<Long, Postings>()
+  private var removedCount = 0
+
+  fun add(item: GERepositoryListItem.Repo) {
+    if (ids.containsKey(item)) return
+    val id = items.size
+    val itemFields = RepoFields(item.repo)
+    items.add(item)
+    fields.add(itemFields)
+    ids[item] = id
+    for (trigram in trigrams(itemFields.text)) {
+      postings.getOrPut(trigram) { Postings() }.add(id)
+    }
+  }
+
+  fun remove(item: GERepositoryListItem.Repo) {
+    val id = ids.remove(item) ?: return
+    items[id] = null
+    fields[id] = null
+    removedCount++
+    if (removedCount > COMPACTION_THRESHOLD && removedCount > items.size / 2) compact()
+  }
+
+  /**
+   * @return repositories matching all words of [query], the best matches first
+   */
+  fun search(query: String): List<GERepositoryListItem.Repo> {
+    val words = query.lowercase().split(WHITESPACE).filter { it.isNotEmpty() }
+    if (words.isEmpty()) return items.filterNotNull()
+
+    val queryPostings = words.flatMap { trigrams(it) }.distinct().map { postings[it] ?: return emptyList() }.sortedBy { it.size }
+
+    val scored = ArrayList<ScoredId>()
+    fun check(id: Int) {
+      val itemFields = fields[id] ?: return
+      val score = itemFields.score(words)
+      if (score > 0) scored.add(ScoredId(id, score))
+    }
+    if (queryPostings.isEmpty()) {
+      for (id in items.indices) check(id)
+    }
+    else {
+      var candidates = queryPostings.first().toArray()
+      for (posting in queryPostings.subList(1, queryPostings.size)) {
+        if (candidates.isEmpty()) break
+        candidates = posting.intersect(candidates)
+      }
+      for (id in candidates) check(id)
+    }
+
+    scored.sortWith(compareByDescending<ScoredId> { it.score }.thenBy { it.id })
+    return scored.mapNotNull { items[it.id] }
+  }
+
+  private fun compact() {
+    val liveItems = items.filterNotNull()
+    items.clear()
+    fields.clear()
+    ids.clear()
+    postings.clear()
+    removedCount = 0
+    liveItems.forEach(::add)
+  }
+
+  private class ScoredId(val id: Int, val score: Int)
+
+  private class RepoFields(repo: GiteeRepo) {
+    val humanName = repo.humanName.orEmpty().lowercase()
+    val fullName = repo.fullName.orEmpty().lowercase()
+    val namespace = repo.namespace?.let { "${it.name.orEmpty()} ${it.path.orEmpty()}" }.orEmpty().lowercase()
+    val description = repo.description.orEmpty().lowercase()
+    val text = listOf(humanName, fullName, namespace, description).joinToString("\n")
+
+    /**
+     * @return zero if some of [words] is not found
+     */
+    fun score(words: List<String>): Int {
+      var total = 0
+      for (word in words) {
+        total += when {
+          humanName.startsWith(word) || fullName.substringAfter('/').startsWith(word) -> 8
+          humanName.contains(word) -> 4
+          fullName.contains(word) -> 3
+          namespace.contains(word) -> 2
+          description.contains(word) -> 1
+          else -> return 0
+        }
+      }
+      return total
+    }
+  }
+
+  /**
+   * Ids in ascending order, as they are assigned
+   */
+  private class Postings {
+    private var ids = IntArray(4)
+    var size = 0
+      private set
+
+    fun add(id: Int) {
+      if (size > 0 && ids[size - 1] == id) return
+      if (size == ids.size) ids = ids.copyOf(size * 2)
+      ids[size++] = id
+    }
+
+    fun toArray(): IntArray = ids.copyOf(size)
+
+    fun intersect(sortedIds: IntArray): IntArray {
+      val result = IntArray(minOf(size, sortedIds.size))
+      var count = 0
+      var i = 0
+      var j = 0
+      while (i < size && j < sortedIds.size) {
+        when {
+          ids[i] < sortedIds[j] -> i++
+          ids[i] > sortedIds[j] -> j++
+          else -> {
+            result[count++] = ids[i]
+            i++
+            j++
+          }
+        }
+      }
+      return result.copyOf(count)
+    }
+  }
+
+  companion object {
+    private const val COMPACTION_THRESHOLD = 1000
+    private val WHITESPACE = Regex("\\s+")
+
+    private fun trigrams(text: String): Set<Long> {
+      if (text.length < 3) return emptySet()
+      val result = HashSet<Long>(text.length)
+      for (i in 0..text.length - 3) {
+        result.add((text[i].code.toLong() shl 32) or (text[i + 1].code.toLong() shl 16) or text[i + 2].code.toLong())
+      }
+      return result
+    }
+  }
+}
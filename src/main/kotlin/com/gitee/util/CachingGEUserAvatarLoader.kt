@@ -15,9 +15,11 @@
  */
 package com.gitee.util
 
+import com.gitee.api.GiteeApiContentHelper
 import com.gitee.api.GiteeApiRequestExecutor
 import com.gitee.api.GiteeApiRequests
 import com.google.common.cache.CacheBuilder
+import com.google.common.cache.Weigher
 import com.intellij.execution.process.ProcessIOExecutorService
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.components.service
@@ -28,47 +30,155 @@ import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.util.Computable
 import com.intellij.openapi.util.LowMemoryWatcher
 import com.intellij.util.ImageLoader
+import com.intellij.util.ui.ImageUtil
 import java.awt.Image
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.*
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
-import java.util.function.Supplier
+import javax.imageio.ImageIO
 
+/**
+ * Avatars are kept downscaled in a weight-bounded memory tier on top of [GEAvatarDiskCache].
+ * An avatar read from disk is shown right away and, once [REVALIDATION_INTERVAL_MS] has passed since it was checked,
+ * revalidated in background with its `ETag`, so unchanged images are not downloaded again.
+ *
+ * At most [MAX_CONCURRENT_LOADS] avatars are loaded at a time, requested ones are taken ahead of background revalidations
+ * and dropped once every caller has cancelled its future.
+ */
 class CachingGEUserAvatarLoader : Disposable {
   private val LOG = logger<CachingGEUserAvatarLoader>()
 
   private val progressIndicator: EmptyProgressIndicator = NonReusableEmptyProgressIndicator()
 
-  private val avatarCache = CacheBuilder.newBuilder()
-    .expireAfterAccess(5, TimeUnit.MINUTES)
-    .build<String, CompletableFuture<Image?>>()
+  private val memoryCache = CacheBuilder.newBuilder()
+    .maximumWeight(MEMORY_CACHE_SIZE)
+    .weigher(Weigher<String, Image> { _, image -> image.getWidth(null) * image.getHeight(null) * 4 })
+    .build<String, Image>()
+  private val diskCache = GEAvatarDiskCache()
+
+  // guarded by queue
+  private val queue = PriorityQueue<Task>(compareBy<Task> { it.priority }.thenBy { it.sequence })
+  private val tasks = HashMap<String, Task>()
+  private var sequence = 0L
+  private var runningCount = 0
 
   init {
-    LowMemoryWatcher.register(Runnable { avatarCache.invalidateAll() }, this)
+    LowMemoryWatcher.register(Runnable { memoryCache.invalidateAll() }, this)
+  }
+
+  private enum class Priority {
+    VISIBLE, REVALIDATION
   }
 
   fun requestAvatar(requestExecutor: GiteeApiRequestExecutor, url: String): CompletableFuture<Image?> {
-    val indicator = progressIndicator
-    // store images at maximum used size with maximum reasonable scale to avoid upscaling (3 for system scale, 2 for user scale)
-    val imageSize = MAXIMUM_ICON_SIZE * 6
+    memoryCache.getIfPresent(url)?.let { return CompletableFuture.completedFuture(it) }
+
+    val result = CompletableFuture<Image?>()
+    enqueue(requestExecutor, url, Priority.VISIBLE, null, result)
+    runNext()
+    return result
+  }
 
-    return avatarCache.get(url) {
-      CompletableFuture.supplyAsync(Supplier {
-        try {
-          ProgressManager.getInstance().runProcess(Computable { loadAndDownscale(requestExecutor, indicator, url, imageSize) }, indicator)
+  /**
+   * Joins the task already loading [url] or queues a new one, a more urgent request moves the task up
+   */
+  private fun enqueue(requestExecutor: GiteeApiRequestExecutor, url: String, priority: Priority,
+                      stored: GEAvatarDiskCache.Entry?, waiter: CompletableFuture<Image?>?) {
+    synchronized(queue) {
+      val task = tasks[url]
+      if (task == null) {
+        val newTask = Task(url, requestExecutor, priority, sequence++, stored)
+        waiter?.let(newTask.waiters::add)
+        tasks[url] = newTask
+        queue.add(newTask)
+      }
+      else {
+        waiter?.let(task.waiters::add)
+        if (priority < task.priority) {
+          val queued = queue.remove(task)
+          task.priority = priority
+          if (queued) queue.add(task)
         }
-        catch (e: ProcessCanceledException) {
-          null
+      }
+    }
+  }
+
+  private fun runNext() {
+    while (true) {
+      val task = synchronized(queue) {
+        if (runningCount >= MAX_CONCURRENT_LOADS) return
+        var next = queue.poll()
+        while (next != null && next.isAbandoned) {
+          tasks.remove(next.url, next)
+          next = queue.poll()
         }
-      }, ProcessIOExecutorService.INSTANCE)
+        if (next == null) return
+        runningCount++
+        next
+      }
+      ProcessIOExecutorService.INSTANCE.execute { run(task) }
     }
   }
 
-  private fun loadAndDownscale(requestExecutor: GiteeApiRequestExecutor, indicator: EmptyProgressIndicator,
-                               url: String, maximumSize: Int): Image? {
+  private fun run(task: Task) {
+    var staleEntry: GEAvatarDiskCache.Entry? = null
+    val image = try {
+      ProgressManager.getInstance().runProcess(Computable {
+        val stored = task.stored
+        if (stored != null) {
+          download(task.requestExecutor, progressIndicator, task.url, stored)
+        }
+        else {
+          val entry = diskCache.get(task.url)
+          val storedImage = entry?.let { decode(task.url, it.png) }
+          if (entry != null && storedImage != null) {
+            if (System.currentTimeMillis() - entry.validatedAt > REVALIDATION_INTERVAL_MS) staleEntry = entry
+            storedImage
+          }
+          else {
+            download(task.requestExecutor, progressIndicator, task.url, null)
+          }
+        }
+      }, progressIndicator)
+    }
+    catch (e: ProcessCanceledException) {
+      null
+    }
+    finally {
+      synchronized(queue) { runningCount-- }
+    }
+
+    if (image != null) memoryCache.put(task.url, image)
+    val waiters = synchronized(queue) {
+      tasks.remove(task.url, task)
+      task.waiters.toList()
+    }
+    val result = image ?: memoryCache.getIfPresent(task.url)
+    waiters.forEach { it.complete(result) }
+
+    staleEntry?.let { enqueue(task.requestExecutor, task.url, Priority.REVALIDATION, it, null) }
+    runNext()
+  }
+
+  /**
+   * @return downloaded image or null if it has not changed since [stored] or cannot be loaded
+   */
+  private fun download(requestExecutor: GiteeApiRequestExecutor, indicator: EmptyProgressIndicator,
+                       url: String, stored: GEAvatarDiskCache.Entry?): Image? {
     try {
-      val image = requestExecutor.execute(indicator, GiteeApiRequests.CurrentUser.getAvatar(url))
-      return if (image.getWidth(null) <= maximumSize && image.getHeight(null) <= maximumSize) image
-      else ImageLoader.scaleImage(image, maximumSize)
+      val avatar = requestExecutor.execute(indicator, GiteeApiRequests.CurrentUser.getAvatar(url, stored?.eTag))
+      val bytes = avatar.bytes
+      if (bytes == null) {
+        if (stored != null) diskCache.put(url, GEAvatarDiskCache.Entry(avatar.eTag, System.currentTimeMillis(), stored.png))
+        return null
+      }
+
+      val image = decodeSubsampled(bytes, MAXIMUM_IMAGE_SIZE) ?: throw IllegalStateException("Unsupported image format")
+      val png = ByteArrayOutputStream().also { ImageIO.write(ImageUtil.toBufferedImage(image), "png", it) }.toByteArray()
+      diskCache.put(url, GEAvatarDiskCache.Entry(avatar.eTag, System.currentTimeMillis(), png))
+      return image
     }
     catch (e: ProcessCanceledException) {
       return null
@@ -79,14 +189,67 @@ class CachingGEUserAvatarLoader : Disposable {
     }
   }
 
+  private fun decode(url: String, png: ByteArray): Image? =
+    try {
+      GiteeApiContentHelper.loadImage(ByteArrayInputStream(png))
+    }
+    catch (e: Exception) {
+      LOG.debug("Unable to decode cached avatar of $url", e)
+      null
+    }
+
+  /**
+   * Reads only every n-th pixel of large images, so the full-size raster is never allocated, and scales the rest down to [maximumSize]
+   */
+  private fun decodeSubsampled(bytes: ByteArray, maximumSize: Int): Image? {
+    val image = ImageIO.createImageInputStream(ByteArrayInputStream(bytes))?.use { input ->
+      val reader = ImageIO.getImageReaders(input).asSequence().firstOrNull() ?: return null
+      try {
+        reader.setInput(input, true, true)
+        val step = maxOf(reader.getWidth(0), reader.getHeight(0)) / maximumSize
+        val param = reader.defaultReadParam
+        if (step > 1) param.setSourceSubsampling(step, step, 0, 0)
+        reader.read(0, param)
+      }
+      finally {
+        reader.dispose()
+      }
+    } ?: return null
+
+    return if (image.width <= maximumSize && image.height <= maximumSize) image
+    else ImageLoader.scaleImage(image, maximumSize)
+  }
+
   override fun dispose() {
     progressIndicator.cancel()
+    val waiters = synchronized(queue) {
+      queue.clear()
+      tasks.values.flatMap { it.waiters }.also { tasks.clear() }
+    }
+    waiters.forEach { it.complete(null) }
+  }
+
+  private class Task(val url: String,
+                     val requestExecutor: GiteeApiRequestExecutor,
+                     var priority: Priority,
+                     val sequence: Long,
+                     val stored: GEAvatarDiskCache.Entry?) {
+    val waiters = mutableListOf<CompletableFuture<Image?>>()
+
+    val isAbandoned: Boolean
+      get() = priority != Priority.REVALIDATION && waiters.all { it.isDone }
   }
 
   companion object {
     private const val MAXIMUM_ICON_SIZE = 40
+    // store images at maximum used size with maximum reasonable scale to avoid upscaling (3 for system scale, 2 for user scale)
+    private const val MAXIMUM_IMAGE_SIZE = MAXIMUM_ICON_SIZE * 6
+
+    private const val MEMORY_CACHE_SIZE = 8L * 1024 * 1024
+    private const val MAX_CONCURRENT_LOADS = 4
+    private val REVALIDATION_INTERVAL_MS = TimeUnit.DAYS.toMillis(1)
 
     @JvmStatic
     fun getInstance(): CachingGEUserAvatarLoader = service()
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.util
+
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.util.io.DigestUtil
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.io.path.*
+
+/**
+ * Size-capped directory of downscaled avatars stored as PNG together with the `ETag` they were downloaded with.
+ * The least recently used files are removed first.
+ */
+internal class GEAvatarDiskCache(private val cacheDir: Path = PathManager.getSystemDir().resolve(CACHE_DIR_NAME)) {
+
+  private val diskSize: AtomicLong by lazy { AtomicLong(calcDiskSize()) }
+
+  class Entry(val eTag: String?, val validatedAt: Long, val png: ByteArray)
+
+  fun get(url: String): Entry? {
+    val file = getFile(url)
+    if (!file.exists()) return null
+    return try {
+      val entry = DataInputStream(file.inputStream().buffered()).use { input ->
+        if (input.readInt() != FORMAT_VERSION) throw IOException("Unsupported avatar format")
+        val eTag = input.readUTF().ifEmpty { null }
+        val validatedAt = input.readLong()
+        val png = ByteArray(input.readInt()).also { input.readFully(it) }
+        Entry(eTag, validatedAt, png)
+      }
+      file.setLastModifiedTime(FileTime.fromMillis(System.currentTimeMillis()))
+      entry
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to read cached avatar $file", e)
+      deleteFile(file)
+      null
+    }
+  }
+
+  fun put(url: String, entry: Entry) {
+    try {
+      cacheDir.createDirectories()
+      val file = getFile(url)
+      val previousSize = if (file.exists()) file.fileSize() else 0L
+      val tempFile = Files.createTempFile(cacheDir, file.fileName.toString(), ".tmp")
+      DataOutputStream(tempFile.outputStream().buffered()).use {
+        it.writeInt(FORMAT_VERSION)
+        it.writeUTF(entry.eTag.orEmpty())
+        it.writeLong(entry.validatedAt)
+        it.writeInt(entry.png.size)
+        it.write(entry.png)
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING)
+
+      if (diskSize.addAndGet(file.fileSize() - previousSize) > DISK_CACHE_SIZE) {
+        trim()
+      }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to store avatar $url", e)
+    }
+  }
+
+  private fun getFile(url: String): Path = cacheDir.resolve(DigestUtil.sha256Hex(url.toByteArray()))
+
+  @Synchronized
+  private fun trim() {
+    if (diskSize.get() <= DISK_CACHE_SIZE) return
+
+    val files = cacheDir.listDirectoryEntries().sortedBy { it.getLastModifiedTime() }
+    for (file in files) {
+      if (diskSize.get() <= DISK_CACHE_SIZE * 3 / 4) break
+      diskSize.addAndGet(-deleteFile(file))
+    }
+  }
+
+  private fun calcDiskSize(): Long {
+    if (!cacheDir.exists()) return 0
+    return try {
+      cacheDir.listDirectoryEntries().sumOf { it.fileSize() }
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to calculate avatar cache size", e)
+      0
+    }
+  }
+
+  private fun deleteFile(file: Path): Long {
+    return try {
+      val size = file.fileSize()
+      file.deleteIfExists()
+      size
+    }
+    catch (e: IOException) {
+      0
+    }
+  }
+
+  companion object {
+    private val LOG = logger<GEAvatarDiskCache>()
+
+    private const val FORMAT_VERSION = 1
+    private const val CACHE_DIR_NAME = "gitee/avatars"
+    private const val DISK_CACHE_SIZE = 32L * 1024 * 1024
+  }
+}
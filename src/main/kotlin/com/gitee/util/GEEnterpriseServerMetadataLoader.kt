@@ -5,35 +5,170 @@ import com.gitee.api.GiteeApiRequest
 import com.gitee.api.GiteeApiRequestExecutor
 import com.gitee.api.GiteeServerPath
 import com.gitee.api.data.GEEnterpriseServerMeta
+import com.gitee.exceptions.GiteeAuthenticationException
+import com.gitee.exceptions.GiteeJsonException
+import com.gitee.exceptions.GiteeStatusCodeException
 import com.intellij.collaboration.async.CompletableFutureUtil.submitIOTask
-import com.intellij.collaboration.util.ProgressIndicatorsProvider
 import com.intellij.openapi.Disposable
-import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.*
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProgressIndicator
 import com.intellij.openapi.progress.ProgressManager
-import com.intellij.openapi.util.Disposer
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.intellij.util.xmlb.annotations.Tag
 import org.jetbrains.annotations.CalledInAny
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
+/**
+ * Probes self-hosted servers for `/meta` and remembers the outcome across sessions.
+ *
+ * Successful probes are served from the persisted state and refreshed in background once they get older than [REFRESH_INTERVAL_MS].
+ * Servers which answered with an error status (including 401, 403 and 404) or a non-metadata response
+ * are remembered as negative for [NEGATIVE_TTL_MS].
+ * Transient failures (timeouts, connection errors, rate limiting) are not persisted and are retried after [RETRY_DELAY_MS].
+ */
 @Service
-class GEEnterpriseServerMetadataLoader : Disposable {
+@State(name = "GiteeServerMetadata", storages = [
+  Storage(value = "gitee-server-metadata.xml", roamingType = RoamingType.DISABLED)
+], reportStatistic = false)
+class GEEnterpriseServerMetadataLoader : PersistentStateComponent<GEEnterpriseServerMetadataLoader.MetadataState>, Disposable {
 
   private val apiRequestExecutor = GiteeApiRequestExecutor.Factory.getInstance().create()
   private val serverMetadataRequests = ConcurrentHashMap<GiteeServerPath, CompletableFuture<GEEnterpriseServerMeta>>()
-  private val indicatorProvider = ProgressIndicatorsProvider().also {
-    Disposer.register(this, it)
-  }
+  private val activeIndicators = ConcurrentHashMap.newKeySet<ProgressIndicator>()
+
+  private val stateLock = Any()
+  private var state = MetadataState()
 
   @CalledInAny
   fun loadMetadata(server: GiteeServerPath): CompletableFuture<GEEnterpriseServerMeta> {
-    require(!server.isGiteeDotCom()) { "Cannot retrieve server metadata from github.com" }
-    return serverMetadataRequests.getOrPut(server) {
-      ProgressManager.getInstance().submitIOTask(indicatorProvider) {
+    require(!server.isGiteeDotCom()) { "Cannot retrieve server metadata from gitee.com" }
+
+    val now = System.currentTimeMillis()
+    val entry = findEntry(server)
+    if (entry != null) {
+      val age = now - entry.timestamp
+      val version = entry.installedVersion
+      if (version != null) {
+        if (age in 0 until REFRESH_INTERVAL_MS) return CompletableFuture.completedFuture(GEEnterpriseServerMeta(version))
+        if (age in 0 until EXPIRATION_MS) {
+          requestMetadata(server)
+          return CompletableFuture.completedFuture(GEEnterpriseServerMeta(version))
+        }
+      }
+      else if (age in 0 until NEGATIVE_TTL_MS) {
+        return CompletableFuture.failedFuture(GiteeStatusCodeException("Server at $server did not provide metadata", entry.statusCode))
+      }
+    }
+    return requestMetadata(server)
+  }
+
+  private fun requestMetadata(server: GiteeServerPath): CompletableFuture<GEEnterpriseServerMeta> {
+    var created: CompletableFuture<GEEnterpriseServerMeta>? = null
+    val indicator = EmptyProgressIndicator()
+    val request = serverMetadataRequests.computeIfAbsent(server) {
+      ProgressManager.getInstance().submitIOTask(indicator) {
         val metaUrl = server.toApiUrl() + "/meta"
         apiRequestExecutor.execute(it, GiteeApiRequest.Get.json<GEEnterpriseServerMeta>(metaUrl))
+      }.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).also { created = it }
+    }
+    if (created != null) activeIndicators.add(indicator)
+    created?.whenComplete { meta, error ->
+      activeIndicators.remove(indicator)
+      val cause = (error as? CompletionException)?.cause ?: error
+      // the timeout fails only the future, the request itself stops on the indicator check
+      if (cause is TimeoutException) indicator.cancel()
+      val negativeStatusCode = getNegativeStatusCode(cause)
+      when {
+        meta != null -> {
+          storeEntry(server, meta.installedVersion, 0)
+          serverMetadataRequests.remove(server, request)
+        }
+        negativeStatusCode != null -> {
+          storeEntry(server, null, negativeStatusCode)
+          serverMetadataRequests.remove(server, request)
+        }
+        else -> {
+          if (cause != null) LOG.debug("Failed to load metadata for $server", cause)
+          // keep the failure for a while so that remotes of the same server do not retry it at once
+          AppExecutorUtil.getAppScheduledExecutorService().schedule({
+            serverMetadataRequests.remove(server, request)
+          }, RETRY_DELAY_MS, TimeUnit.MILLISECONDS)
+        }
       }
     }
+    return request
+  }
+
+  private fun findEntry(server: GiteeServerPath): ServerEntry? {
+    val url = server.toUrl()
+    return synchronized(stateLock) {
+      state.servers.find { it.url == url }
+    }
+  }
+
+  private fun storeEntry(server: GiteeServerPath, installedVersion: String?, statusCode: Int) {
+    val url = server.toUrl()
+    val now = System.currentTimeMillis()
+    synchronized(stateLock) {
+      state.servers.removeIf { it.url == url || now - it.timestamp !in 0 until EXPIRATION_MS }
+      state.servers.add(ServerEntry().also {
+        it.url = url
+        it.installedVersion = installedVersion
+        it.statusCode = statusCode
+        it.timestamp = now
+      })
+      state.intIncrementModificationCount()
+    }
   }
 
-  override fun dispose() {}
-}
\ No newline at end of file
+  override fun getState(): MetadataState = synchronized(stateLock) { state }
+
+  override fun loadState(state: MetadataState) {
+    synchronized(stateLock) {
+      this.state = state
+    }
+  }
+
+  override fun dispose() {
+    activeIndicators.forEach { it.cancel() }
+  }
+
+  class MetadataState : BaseState() {
+    var servers by list<ServerEntry>()
+  }
+
+  @Tag("server")
+  class ServerEntry : BaseState() {
+    var url by string()
+    var installedVersion by string()
+    var statusCode by property(0)
+    var timestamp by property(0L)
+  }
+
+  companion object {
+    private val LOG = logger<GEEnterpriseServerMetadataLoader>()
+
+    private val REQUEST_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10)
+    private val RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1)
+    private val NEGATIVE_TTL_MS = TimeUnit.HOURS.toMillis(1)
+    private val REFRESH_INTERVAL_MS = TimeUnit.DAYS.toMillis(1)
+    private val EXPIRATION_MS = TimeUnit.DAYS.toMillis(30)
+
+    /**
+     * @return status code to remember the server as negative with, 0 if the server answered without one,
+     * null if the failure is transient and the request should be retried
+     */
+    internal fun getNegativeStatusCode(cause: Throwable?): Int? = when (cause) {
+      is GiteeStatusCodeException -> cause.statusCode
+      is GiteeAuthenticationException -> cause.statusCode
+      is GiteeJsonException -> 0
+      else -> null
+    }
+  }
+}
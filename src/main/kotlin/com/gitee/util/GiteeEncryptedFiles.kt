@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.util
+
+import com.intellij.credentialStore.CredentialAttributes
+import com.intellij.credentialStore.Credentials
+import com.intellij.credentialStore.generateServiceName
+import com.intellij.ide.passwordSafe.PasswordSafe
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.GeneralSecurityException
+import java.security.SecureRandom
+import java.util.*
+import javax.crypto.Cipher
+import javax.crypto.CipherInputStream
+import javax.crypto.CipherOutputStream
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.io.path.exists
+import kotlin.io.path.inputStream
+import kotlin.io.path.outputStream
+
+/**
+ * Files in the IDE system dir which hold API data of the user, such as private repositories and issues.
+ *
+ * Contents are encrypted with AES-GCM using a key kept in the password safe.
+ * If the password safe keeps secrets in memory only, nothing is written, since the files would be unreadable after restart.
+ */
+@Service
+class GiteeEncryptedFiles internal constructor(keyProvider: () -> SecretKey?) {
+
+  constructor() : this(::loadOrCreateSecretKey)
+
+  private val secretKey: SecretKey? by lazy(keyProvider)
+
+  val isAvailable: Boolean
+    get() = secretKey != null
+
+  /**
+   * @return null if there is no [file] or encryption is not available
+   * @throws IOException if the file can't be read or decrypted, e.g. it was written with a key which is no longer in the password safe
+   */
+  @Throws(IOException::class)
+  fun <T> read(file: Path, reader: (DataInputStream) -> T): T? {
+    val secretKey = secretKey ?: return null
+    if (!file.exists()) return null
+    return DataInputStream(file.inputStream().buffered()).use { input ->
+      if (input.readInt() != FORMAT_VERSION) throw IOException("Unsupported file format")
+      val iv = ByteArray(GCM_IV_LENGTH).also(input::readFully)
+      val cipher = createCipher(Cipher.DECRYPT_MODE, secretKey, iv)
+      DataInputStream(CipherInputStream(input, cipher)).use(reader)
+    }
+  }
+
+  /**
+   * Replaces [file] atomically
+   *
+   * @return false if encryption is not available and nothing was written
+   */
+  @Throws(IOException::class)
+  fun write(file: Path, writer: (DataOutputStream) -> Unit): Boolean {
+    val secretKey = secretKey ?: return false
+    val dir = Files.createDirectories(file.parent)
+    val tempFile = Files.createTempFile(dir, file.fileName.toString(), ".tmp")
+    try {
+      val iv = ByteArray(GCM_IV_LENGTH).also(random::nextBytes)
+      DataOutputStream(tempFile.outputStream().buffered()).use { output ->
+        output.writeInt(FORMAT_VERSION)
+        output.write(iv)
+        DataOutputStream(CipherOutputStream(output, createCipher(Cipher.ENCRYPT_MODE, secretKey, iv))).use(writer)
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING)
+    }
+    finally {
+      Files.deleteIfExists(tempFile)
+    }
+    return true
+  }
+
+  companion object {
+    private val LOG = logger<GiteeEncryptedFiles>()
+
+    private const val FORMAT_VERSION = 1
+    private const val GCM_IV_LENGTH = 12
+    private const val GCM_TAG_LENGTH = 128
+
+    private val SECRET_KEY_ATTRIBUTES = CredentialAttributes(generateServiceName(GiteeUtil.SERVICE_DISPLAY_NAME, "Local data encryption"))
+    private val random = SecureRandom()
+
+    @JvmStatic
+    fun getInstance(): GiteeEncryptedFiles = service()
+
+    @Throws(IOException::class)
+    private fun createCipher(mode: Int, key: SecretKey, iv: ByteArray): Cipher =
+      try {
+        Cipher.getInstance("AES/GCM/NoPadding").apply { init(mode, key, GCMParameterSpec(GCM_TAG_LENGTH, iv)) }
+      }
+      catch (e: GeneralSecurityException) {
+        throw IOException(e)
+      }
+
+    private fun loadOrCreateSecretKey(): SecretKey? {
+      return try {
+        val passwordSafe = PasswordSafe.instance
+        if (passwordSafe.isMemoryOnly) return null
+        val stored = passwordSafe.getPassword(SECRET_KEY_ATTRIBUTES)
+        if (stored != null) return SecretKeySpec(Base64.getDecoder().decode(stored), "AES")
+
+        val key = KeyGenerator.getInstance("AES").apply { init(256, random) }.generateKey()
+        passwordSafe.set(SECRET_KEY_ATTRIBUTES, Credentials(null, Base64.getEncoder().encodeToString(key.encoded)))
+        key
+      }
+      catch (e: Exception) {
+        LOG.warn("Unable to initialize encryption of local data, it will not be stored on disk", e)
+        null
+      }
+    }
+  }
+}
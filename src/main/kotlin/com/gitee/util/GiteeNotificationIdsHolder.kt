@@ -32,7 +32,7 @@ class GiteeNotificationIdsHolder : NotificationIdsHolder {
                   REBASE_REPO_NOT_FOUND,
                   REBASE_CANNOT_LOAD_REPO_INFO,
                   REBASE_REPO_IS_NOT_A_FORK,
-                  REBASE_MULTI_REPO_NOT_SUPPORTED,
+                  REBASE_FAILED,
                   REBASE_REMOTE_ORIGIN_NOT_FOUND,
                   REBASE_ACCOUNT_NOT_FOUND,
                   REBASE_FAILED_TO_MATCH_REPO,
@@ -74,7 +74,7 @@ class GiteeNotificationIdsHolder : NotificationIdsHolder {
     const val REBASE_REPO_NOT_FOUND = "gitee.rebase.repo.not.found"
     const val REBASE_CANNOT_LOAD_REPO_INFO = "gitee.rebase.cannot.load.repo.info"
     const val REBASE_REPO_IS_NOT_A_FORK = "gitee.rebase.repo.is.not.a.fork"
-    const val REBASE_MULTI_REPO_NOT_SUPPORTED = "gitee.rebase.multi.repo.not.supported"
+    const val REBASE_FAILED = "gitee.rebase.failed"
     const val REBASE_REMOTE_ORIGIN_NOT_FOUND = "gitee.rebase.remote.origin.not.found"
     const val REBASE_ACCOUNT_NOT_FOUND = "gitee.rebase.account.not.found"
     const val REBASE_FAILED_TO_MATCH_REPO = "rebase.error.failed.to.match.ge.repo"
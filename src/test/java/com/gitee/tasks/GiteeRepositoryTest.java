@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.tasks;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class GiteeRepositoryTest {
+
+  @Test
+  public void windowOfTheRequestedSizeIsOnePage() throws IOException {
+    FakeList list = new FakeList(250);
+
+    assertEquals(range(40, 60), GiteeRepository.loadWindow(40, 20, list));
+    assertEquals(List.of("3:20"), list.requests);
+  }
+
+  @Test
+  public void unalignedWindowUsesFullPages() throws IOException {
+    FakeList list = new FakeList(250);
+
+    assertEquals(range(95, 110), GiteeRepository.loadWindow(95, 15, list));
+    assertEquals(List.of("1:100", "2:100"), list.requests);
+  }
+
+  @Test
+  public void windowLargerThanMaxPageSpansPages() throws IOException {
+    FakeList list = new FakeList(250);
+
+    assertEquals(range(0, 150), GiteeRepository.loadWindow(0, 150, list));
+    assertEquals(List.of("1:100", "2:100"), list.requests);
+  }
+
+  @Test
+  public void windowIsCutAtTheEndOfTheList() throws IOException {
+    FakeList list = new FakeList(45);
+
+    assertEquals(range(40, 45), GiteeRepository.loadWindow(40, 20, list));
+    assertEquals(List.of("3:20"), list.requests);
+  }
+
+  @Test
+  public void windowAfterTheEndIsEmpty() throws IOException {
+    FakeList list = new FakeList(40);
+
+    assertEquals(List.of(), GiteeRepository.loadWindow(60, 20, list));
+    assertEquals(List.of("4:20"), list.requests);
+  }
+
+  @Test
+  public void emptyWindowLoadsNothing() throws IOException {
+    FakeList list = new FakeList(40);
+
+    assertEquals(List.of(), GiteeRepository.loadWindow(0, 0, list));
+    assertEquals(List.of(), list.requests);
+  }
+
+  @Test
+  public void fullLastPageRequestsTheNextOne() throws IOException {
+    FakeList list = new FakeList(100);
+
+    assertEquals(range(0, 100), GiteeRepository.loadWindow(0, 150, list));
+    assertEquals(List.of("1:100", "2:100"), list.requests);
+  }
+
+  private static List<Integer> range(int from, int to) {
+    return IntStream.range(from, to).boxed().collect(Collectors.toList());
+  }
+
+  private static class FakeList implements GiteeRepository.PageLoader<Integer> {
+    private final int mySize;
+    private final List<String> requests = new ArrayList<>();
+
+    FakeList(int size) {
+      mySize = size;
+    }
+
+    @Override
+    public List<Integer> load(int pageNumber, int pageSize) {
+      requests.add(pageNumber + ":" + pageSize);
+      int from = (pageNumber - 1) * pageSize;
+      return range(Math.min(from, mySize), Math.min(from + pageSize, mySize));
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.testFramework.ApplicationRule
+import org.junit.Assert.*
+import org.junit.ClassRule
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class GiteeApiInFlightRequestsTest {
+
+  private val requests = GiteeApiInFlightRequests()
+
+  @Test
+  fun `concurrent callers share one execution`() {
+    val started = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val executions = AtomicInteger()
+    val joined = AtomicInteger()
+    val task: (ProgressIndicator) -> String = {
+      executions.incrementAndGet()
+      started.countDown()
+      release.await(TIMEOUT_SEC, TimeUnit.SECONDS)
+      "result"
+    }
+
+    val first = CompletableFuture.supplyAsync { requests.execute(KEY, EmptyProgressIndicator(), task = task) }
+    assertTrue(started.await(TIMEOUT_SEC, TimeUnit.SECONDS))
+    val second = CompletableFuture.supplyAsync { requests.execute(KEY, EmptyProgressIndicator(), { joined.incrementAndGet() }, task) }
+    waitFor { joined.get() == 1 }
+    release.countDown()
+
+    assertEquals("result", first.get(TIMEOUT_SEC, TimeUnit.SECONDS))
+    assertEquals("result", second.get(TIMEOUT_SEC, TimeUnit.SECONDS))
+    assertEquals(1, executions.get())
+  }
+
+  @Test
+  fun `finished request is executed again`() {
+    val executions = AtomicInteger()
+    repeat(2) {
+      assertEquals(it, requests.execute(KEY, EmptyProgressIndicator()) { executions.getAndIncrement() })
+    }
+    assertEquals(2, executions.get())
+  }
+
+  @Test
+  fun `cancelled caller does not cancel the others`() {
+    val started = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val joined = AtomicInteger()
+    val requestIndicator = CompletableFuture<ProgressIndicator>()
+    val task: (ProgressIndicator) -> String = {
+      requestIndicator.complete(it)
+      started.countDown()
+      release.await(TIMEOUT_SEC, TimeUnit.SECONDS)
+      "result"
+    }
+
+    val cancelledIndicator = EmptyProgressIndicator()
+    val cancelled = CompletableFuture.supplyAsync { requests.execute(KEY, cancelledIndicator, task = task) }
+    assertTrue(started.await(TIMEOUT_SEC, TimeUnit.SECONDS))
+    val other = CompletableFuture.supplyAsync { requests.execute(KEY, EmptyProgressIndicator(), { joined.incrementAndGet() }, task) }
+    waitFor { joined.get() == 1 }
+
+    cancelledIndicator.cancel()
+    assertCancelled(cancelled)
+    assertFalse(requestIndicator.get().isCanceled)
+
+    release.countDown()
+    assertEquals("result", other.get(TIMEOUT_SEC, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `request is cancelled when all callers have left`() {
+    val started = CountDownLatch(1)
+    val requestIndicator = CompletableFuture<ProgressIndicator>()
+    val task: (ProgressIndicator) -> String = {
+      requestIndicator.complete(it)
+      started.countDown()
+      while (!it.isCanceled) Thread.sleep(10)
+      throw ProcessCanceledException()
+    }
+
+    val indicator = EmptyProgressIndicator()
+    val caller = CompletableFuture.supplyAsync { requests.execute(KEY, indicator, task = task) }
+    assertTrue(started.await(TIMEOUT_SEC, TimeUnit.SECONDS))
+    indicator.cancel()
+
+    assertCancelled(caller)
+    assertTrue(requestIndicator.get().isCanceled)
+    // the cancelled request is not shared with new callers
+    assertEquals("new", requests.execute(KEY, EmptyProgressIndicator()) { "new" })
+  }
+
+  @Test
+  fun `failure is passed to the caller`() {
+    val error = IOException("failure")
+    val e = assertThrows(IOException::class.java) {
+      requests.execute<String>(KEY, EmptyProgressIndicator()) { throw error }
+    }
+    assertSame(error, e)
+  }
+
+  @Test
+  fun `requests with different result types or headers are not shared`() {
+    val url = "https://gitee.com/avatar.png"
+    assertEquals(GiteeApiInFlightRequests.getKey(HeaderRequest(url, null), null),
+                 GiteeApiInFlightRequests.getKey(HeaderRequest(url, null), null))
+    assertNotEquals(GiteeApiInFlightRequests.getKey(HeaderRequest(url, null), null),
+                    GiteeApiInFlightRequests.getKey(HeaderRequest(url, "\"etag\""), null))
+
+    val jsonUrl = "https://gitee.com/api/v5/user"
+    assertNotEquals(GiteeApiInFlightRequests.getKey(GiteeApiRequest.Get.json<Any>(jsonUrl), null),
+                    GiteeApiInFlightRequests.getKey(GiteeApiRequest.Get.Optional.json<Any>(jsonUrl), null))
+    assertNotEquals(GiteeApiInFlightRequests.getKey(GiteeApiRequest.Get.json<Any>(jsonUrl), "token a"),
+                    GiteeApiInFlightRequests.getKey(GiteeApiRequest.Get.json<Any>(jsonUrl), "token b"))
+  }
+
+  private fun assertCancelled(future: CompletableFuture<*>) {
+    val e = assertThrows(ExecutionException::class.java) { future.get(TIMEOUT_SEC, TimeUnit.SECONDS) }
+    assertTrue(e.cause.toString(), e.cause is ProcessCanceledException)
+  }
+
+  private fun waitFor(condition: () -> Boolean) {
+    val deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SEC)
+    while (!condition()) {
+      assertTrue(System.currentTimeMillis() < deadline)
+      Thread.sleep(10)
+    }
+  }
+
+  private class HeaderRequest(url: String, eTag: String?) : GiteeApiRequest.Get<String>(url) {
+    init {
+      eTag?.let { headers["If-None-Match"] = it }
+    }
+
+    override fun extractResult(response: GiteeApiResponse): String = ""
+  }
+
+  companion object {
+    private const val KEY = "key"
+    private const val TIMEOUT_SEC = 10L
+
+    @JvmField
+    @ClassRule
+    val application = ApplicationRule()
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.gitee.api.GiteeApiRateLimiter.Priority
+import com.intellij.openapi.util.ThrowableComputable
+import org.junit.Assert.*
+import org.junit.Test
+
+class GiteeApiRateLimiterTest {
+
+  @Test
+  fun `full bucket serves a burst and then asks to wait for a refill`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    repeat(30) { assertEquals(0, bucket.tryAcquire(Priority.INTERACTIVE, NOW)) }
+
+    // 10 tokens per second
+    assertTrue(bucket.tryAcquire(Priority.INTERACTIVE, NOW) in 99L..101L)
+    assertEquals(0, bucket.tryAcquire(Priority.INTERACTIVE, NOW + 101))
+    assertTrue(bucket.tryAcquire(Priority.INTERACTIVE, NOW + 101) > 0)
+  }
+
+  @Test
+  fun `refill does not exceed the capacity`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    bucket.refill(NOW + 60_000)
+    assertEquals(30.0, bucket.tokens, 0.0)
+  }
+
+  @Test
+  fun `background requests leave a reserve for interactive ones`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    repeat(20) { assertEquals(0, bucket.tryAcquire(Priority.INTERACTIVE, NOW)) }
+
+    // 10 tokens left, 9 of them are reserved
+    assertEquals(0, bucket.tryAcquire(Priority.BACKGROUND, NOW))
+    assertTrue(bucket.tryAcquire(Priority.BACKGROUND, NOW) > 0)
+    assertEquals(0, bucket.tryAcquire(Priority.INTERACTIVE, NOW))
+  }
+
+  @Test
+  fun `background requests wait while interactive ones are waiting`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    bucket.interactiveWaiters = 1
+    assertTrue(bucket.tryAcquire(Priority.BACKGROUND, NOW) > 0)
+
+    bucket.interactiveWaiters = 0
+    assertEquals(0, bucket.tryAcquire(Priority.BACKGROUND, NOW))
+  }
+
+  @Test
+  fun `backoff grows exponentially with jitter up to the limit`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    for (failure in 1..12) {
+      val now = NOW + failure * 1_000_000L
+      val backoff = minOf(60_000L, 1000L shl (failure - 1))
+      val waitMs = bucket.backOff(now)
+      assertTrue("failure $failure: $waitMs", waitMs in backoff / 2..backoff)
+      assertEquals(waitMs, bucket.tryAcquire(Priority.INTERACTIVE, now))
+    }
+  }
+
+  @Test
+  fun `backoff halves the refill rate`() {
+    val bucket = GiteeApiRateLimiter.Bucket(NOW)
+    val rate = bucket.refillPerMs
+    bucket.backOff(NOW)
+    assertEquals(rate / 2, bucket.refillPerMs, 1e-9)
+    bucket.backOff(NOW)
+    assertEquals(rate / 4, bucket.refillPerMs, 1e-9)
+  }
+
+  @Test
+  fun `retries stop after the maximum number of attempts`() {
+    val limiter = GiteeApiRateLimiter()
+    val key = limiter.getKey("https://gitee.com/api/v5/user", "1", null)
+    for (attempt in 0 until 5) assertTrue(limiter.onRateLimitExceeded(key, attempt))
+    assertFalse(limiter.onRateLimitExceeded(key, 5))
+  }
+
+  @Test
+  fun `keys are per server and account`() {
+    val limiter = GiteeApiRateLimiter()
+    val key = limiter.getKey("https://gitee.com/api/v5/user", "1", "token a")
+    assertEquals(key, limiter.getKey("https://gitee.com/api/v5/repos", "1", "token b"))
+    assertNotEquals(key, limiter.getKey("https://gitee.com/api/v5/user", "2", "token a"))
+    assertNotEquals(key, limiter.getKey("https://example.com/api/v5/user", "1", "token a"))
+    assertNotEquals(limiter.getKey("https://gitee.com/api/v5/user", null, "token a"),
+                    limiter.getKey("https://gitee.com/api/v5/user", null, "token b"))
+  }
+
+  @Test
+  fun `priority is restored after computation`() {
+    assertEquals(Priority.INTERACTIVE, GiteeApiRateLimiter.currentPriority())
+    val priority = GiteeApiRateLimiter.computeWithPriority(Priority.BACKGROUND, ThrowableComputable<Priority, Exception> {
+      GiteeApiRateLimiter.currentPriority()
+    })
+    assertEquals(Priority.BACKGROUND, priority)
+    assertEquals(Priority.INTERACTIVE, GiteeApiRateLimiter.currentPriority())
+  }
+
+  companion object {
+    private const val NOW = 1_700_000_000_000L
+  }
+}
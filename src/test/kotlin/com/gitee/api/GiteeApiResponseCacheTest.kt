@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.api
+
+import com.gitee.util.GiteeEncryptedFiles
+import com.intellij.openapi.util.Disposer
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.Path
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import kotlin.io.path.readBytes
+import kotlin.streams.toList
+
+class GiteeApiResponseCacheTest {
+
+  @get:Rule
+  val tempDir = TemporaryFolder()
+
+  private val key: SecretKey = KeyGenerator.getInstance("AES").apply { init(256) }.generateKey()
+  private val caches = mutableListOf<GiteeApiResponseCache>()
+
+  @After
+  fun tearDown() {
+    caches.forEach(Disposer::dispose)
+  }
+
+  @Test
+  fun `entry survives restart`() {
+    val scope = GiteeApiResponseCache.getAccountScope("1")
+    val cache = createCache()
+    val cacheKey = cache.getKey(scope, request("repos"))
+    cache.put(cacheKey, entry("\"etag\"", "[{\"id\":1}]"))
+
+    val restored = createCache().get(cacheKey)
+    assertNotNull(restored)
+    assertEquals("\"etag\"", restored!!.eTag)
+    assertEquals("value", restored.headers["X-Header"])
+    assertEquals("[{\"id\":1}]", restored.body.decodeToString())
+  }
+
+  @Test
+  fun `files are not stored in plain text`() {
+    val cache = createCache()
+    cache.put(cache.getKey(GiteeApiResponseCache.ANONYMOUS_SCOPE, request("repos")), entry(null, "private-repository-name"))
+
+    val files = cacheFiles()
+    assertEquals(1, files.size)
+    assertFalse(files.single().readBytes().decodeToString().contains("private-repository-name"))
+  }
+
+  @Test
+  fun `files written with another key are dropped`() {
+    val cache = createCache()
+    val cacheKey = cache.getKey(GiteeApiResponseCache.ANONYMOUS_SCOPE, request("repos"))
+    cache.put(cacheKey, entry(null, "body"))
+
+    val otherKey = KeyGenerator.getInstance("AES").apply { init(256) }.generateKey()
+    assertNull(createCache(keyProvider = { otherKey }).get(cacheKey))
+    assertTrue(cacheFiles().isEmpty())
+  }
+
+  @Test
+  fun `nothing is written without encryption key`() {
+    val cache = createCache(keyProvider = { null })
+    val cacheKey = cache.getKey(GiteeApiResponseCache.ANONYMOUS_SCOPE, request("repos"))
+    cache.put(cacheKey, entry(null, "body"))
+
+    assertNotNull(cache.get(cacheKey))
+    assertTrue(cacheFiles().isEmpty())
+  }
+
+  @Test
+  fun `scopes are separated and retained`() {
+    val first = GiteeApiResponseCache.getAccountScope("1")
+    val second = GiteeApiResponseCache.getAccountScope("2")
+    val cache = createCache()
+    val firstKey = cache.getKey(first, request("user"))
+    val secondKey = cache.getKey(second, request("user"))
+    assertNotEquals(firstKey, secondKey)
+
+    cache.put(firstKey, entry(null, "first"))
+    cache.put(secondKey, entry(null, "second"))
+    cache.retainScopes(listOf(second))
+
+    assertNull(cache.get(firstKey))
+    assertEquals("second", cache.get(secondKey)!!.body.decodeToString())
+    assertNull(createCache().get(firstKey))
+    assertNotNull(createCache().get(secondKey))
+  }
+
+  @Test
+  fun `disk cache is trimmed to the most recent entries`() {
+    val body = "x".repeat(1000)
+    val cache = createCache(diskCacheSize = 5000)
+    val keys = (0 until 10).map { cache.getKey(GiteeApiResponseCache.ANONYMOUS_SCOPE, request("repos/$it")) }
+    for (cacheKey in keys) {
+      cache.put(cacheKey, entry(null, body))
+      // modification time is the eviction order
+      Thread.sleep(20)
+    }
+
+    assertTrue(cacheFiles().sumOf { Files.size(it) } <= 5000)
+    val restarted = createCache(diskCacheSize = 5000)
+    assertNull(restarted.get(keys.first()))
+    assertNotNull(restarted.get(keys.last()))
+  }
+
+  @Test
+  fun `too large entries are not cached`() {
+    val cache = createCache()
+    val cacheKey = cache.getKey(GiteeApiResponseCache.ANONYMOUS_SCOPE, request("repos"))
+    cache.put(cacheKey, GiteeApiResponseCache.Entry(null, null, emptyMap(), ByteArray(4 * 1024 * 1024 + 1)))
+
+    assertNull(cache.get(cacheKey))
+    assertTrue(cacheFiles().isEmpty())
+  }
+
+  private fun createCache(keyProvider: () -> SecretKey? = { key }, diskCacheSize: Long = 64L * 1024 * 1024) =
+    GiteeApiResponseCache(tempDir.root.toPath(), GiteeEncryptedFiles(keyProvider), diskCacheSize).also { caches.add(it) }
+
+  private fun cacheFiles(): List<Path> = Files.walk(tempDir.root.toPath()).use { paths -> paths.filter { Files.isRegularFile(it) }.toList() }
+
+  companion object {
+    private fun request(path: String) = GiteeApiRequest.Get.json<Any>("https://gitee.com/api/v5/$path")
+
+    private fun entry(eTag: String?, body: String) =
+      GiteeApiResponseCache.Entry(eTag, null, mapOf("X-Header" to "value"), body.toByteArray())
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.issue
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.GiteeServerPath
+import com.gitee.api.data.GiteeIssue
+import com.gitee.util.GiteeEncryptedFiles
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.text.SimpleDateFormat
+import java.util.*
+import javax.crypto.KeyGenerator
+
+class GiteeIssuesIndexTest {
+
+  @get:Rule
+  val tempDir = TemporaryFolder()
+
+  private val encryptedFiles = GiteeEncryptedFiles { KeyGenerator.getInstance("AES").apply { init(256) }.generateKey() }
+
+  @Test
+  fun `issues updated while paging are not skipped`() {
+    val server = FakeServer((1..250).map { it to it * MINUTE })
+    // the first issue is updated after the first page was returned, with offsets the rest would shift one position back
+    server.onRequest = { requests -> if (requests == 2) server.update(1, 1000 * MINUTE) }
+
+    val index = createIndex()
+    index.sync(EmptyProgressIndicator(), server::load)
+
+    assertEquals((1..250).map(Int::toString).toSet(), (1..250).mapNotNullTo(HashSet()) { index.find(it.toString())?.number })
+    assertEquals(date(1000 * MINUTE), index.find("1")!!.updatedAt)
+  }
+
+  @Test
+  fun `full page of issues updated at the same time is followed by the next page`() {
+    val server = FakeServer((1..150).map { it to MINUTE } + (151..160).map { it to 2 * MINUTE })
+
+    val index = createIndex()
+    index.sync(EmptyProgressIndicator(), server::load)
+
+    assertTrue((1..160).all { index.find(it.toString()) != null })
+  }
+
+  @Test
+  fun `next synchronization starts at the latest update`() {
+    val server = FakeServer((1..10).map { it to it * MINUTE })
+    createIndex().sync(EmptyProgressIndicator(), server::load)
+
+    server.update(3, 100 * MINUTE)
+    val since = mutableListOf<Date?>()
+    val index = createIndex()
+    index.sync(EmptyProgressIndicator()) { from, page ->
+      since.add(from)
+      server.load(from, page)
+    }
+
+    assertEquals(listOf(date(10 * MINUTE - 1000)), since)
+    assertEquals(date(100 * MINUTE), index.find("3")!!.updatedAt)
+  }
+
+  @Test
+  fun `stored copy is encrypted`() {
+    val server = FakeServer(listOf(1 to MINUTE))
+    createIndex().sync(EmptyProgressIndicator(), server::load)
+
+    assertFalse(Files.readAllBytes(tempDir.root.toPath().resolve(FILE_NAME)).decodeToString().contains("issue title"))
+    val restored = createIndex()
+    assertTrue(restored.isReady)
+    assertEquals(listOf("1"), restored.search("title", true, null, 0, 10).map { it.number })
+  }
+
+  @Test
+  fun `index is kept in memory without encryption`() {
+    val server = FakeServer(listOf(1 to MINUTE))
+    val index = createIndex(GiteeEncryptedFiles { null })
+    index.sync(EmptyProgressIndicator(), server::load)
+
+    assertNotNull(index.find("1"))
+    assertFalse(Files.exists(tempDir.root.toPath().resolve(FILE_NAME)))
+  }
+
+  private fun createIndex(encryptedFiles: GiteeEncryptedFiles = this.encryptedFiles) =
+    GiteeIssuesIndex(GiteeServerPath.DEFAULT_SERVER, "owner", "repo", tempDir.root.toPath().resolve(FILE_NAME), encryptedFiles)
+
+  /**
+   * Serves issues like the API: updated at or after `since`, ascending by update time, in pages of 100
+   */
+  private class FakeServer(issues: List<Pair<Int, Long>>) {
+    private val updatedAt = LinkedHashMap<Int, Long>().apply { issues.forEach { put(it.first, it.second) } }
+    private var requests = 0
+    var onRequest: (Int) -> Unit = {}
+
+    fun update(number: Int, time: Long) {
+      updatedAt[number] = time
+    }
+
+    fun load(since: Date?, page: Int): List<GiteeIssue> {
+      onRequest(++requests)
+      return updatedAt.entries
+        .filter { since == null || date(it.value) >= since }
+        .sortedWith(compareBy({ it.value }, { it.key }))
+        .drop((page - 1) * 100)
+        .take(100)
+        .map { issue(it.key, it.value) }
+    }
+  }
+
+  companion object {
+    private const val FILE_NAME = "issues"
+    private const val MINUTE = 60 * 1000L
+    private const val START = 1_700_000_000_000L
+
+    private fun date(time: Long) = Date(START + time)
+
+    private fun issue(number: Int, time: Long): GiteeIssue {
+      val updatedAt = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(date(time))
+      return GiteeApiContentHelper.fromJson(
+        """{"number": "$number", "title": "issue title $number", "state": "open", "updated_at": "$updatedAt"}""")
+    }
+  }
+}
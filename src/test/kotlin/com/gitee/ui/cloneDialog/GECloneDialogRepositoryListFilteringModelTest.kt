@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.data.GiteeAuthenticatedUser
+import com.gitee.api.data.GiteeRepo
+import com.gitee.authentication.accounts.GiteeAccount
+import org.junit.Assert.*
+import org.junit.Test
+
+class GECloneDialogRepositoryListFilteringModelTest {
+
+  private val source = GECloneDialogRepositoryListModel()
+  private val model = GECloneDialogRepositoryListFilteringModel(source)
+  private val account = GiteeAccount("account")
+
+  @Test
+  fun `query shows matches followed by remote ones`() {
+    source.addRepositories(account, USER, listOf(repo("alpha"), repo("beta"), repo("alphabet")))
+
+    model.query = "alpha"
+    model.setRemoteMatches("alpha", listOf(item(repo("alpha")), item(repo("alpha-remote"))))
+
+    assertEquals(listOf("alpha", "alphabet", "alpha-remote"), names())
+    assertEquals(2, model.remoteSectionStart)
+  }
+
+  @Test
+  fun `remote matches of a previous query are ignored`() {
+    source.addRepositories(account, USER, listOf(repo("alpha")))
+
+    model.query = "alpha"
+    model.setRemoteMatches("alp", listOf(item(repo("alpha-remote"))))
+
+    assertEquals(listOf("alpha"), names())
+    assertEquals(-1, model.remoteSectionStart)
+  }
+
+  @Test
+  fun `selection follows the item when the query changes`() {
+    source.addRepositories(account, USER, listOf(repo("alpha"), repo("beta"), repo("gamma")))
+    model.selectionModel.setSelectionInterval(2, 2)
+
+    model.query = "gamma"
+    assertEquals(0, model.selectionModel.leadSelectionIndex)
+
+    model.query = ""
+    assertEquals(2, model.selectionModel.leadSelectionIndex)
+  }
+
+  @Test
+  fun `selection follows the item when repositories are loaded`() {
+    source.addRepositories(account, USER, listOf(repo("alphabeta")))
+    model.query = "beta"
+    model.selectionModel.setSelectionInterval(0, 0)
+
+    source.addRepositories(account, USER, listOf(repo("beta")))
+
+    assertEquals(listOf("beta", "alphabeta"), names())
+    assertEquals(1, model.selectionModel.leadSelectionIndex)
+  }
+
+  @Test
+  fun `selection is cleared when the item is filtered out`() {
+    source.addRepositories(account, USER, listOf(repo("alpha"), repo("beta")))
+    model.selectionModel.setSelectionInterval(1, 1)
+
+    model.query = "alpha"
+
+    assertTrue(model.selectionModel.isSelectionEmpty)
+  }
+
+  private fun names() = (0 until model.size).map { (model.getElementAt(it) as GERepositoryListItem.Repo).repo.name }
+
+  private fun item(repo: GiteeRepo) = GERepositoryListItem.Repo(account, USER, repo)
+
+  companion object {
+    private val USER = GiteeApiContentHelper.fromJson<GiteeAuthenticatedUser>("""{"id": 1, "login": "user"}""")
+
+    private fun repo(name: String) = GiteeApiContentHelper.fromJson<GiteeRepo>(
+      """{"id": ${name.hashCode()}, "name": "$name", "path": "$name", "full_name": "user/$name", "human_name": "user/$name", "private": false}""")
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.data.GiteeAuthenticatedUser
+import com.gitee.api.data.GiteeRepo
+import com.gitee.authentication.accounts.GiteeAccount
+import org.junit.Assert.*
+import org.junit.Test
+import javax.swing.event.ListDataEvent
+import javax.swing.event.ListDataListener
+
+class GECloneDialogRepositoryListModelTest {
+
+  private val model = GECloneDialogRepositoryListModel()
+  private val events = mutableListOf<String>()
+  private val first = GiteeAccount("first")
+  private val second = GiteeAccount("second")
+
+  init {
+    model.addListDataListener(object : ListDataListener {
+      override fun intervalAdded(e: ListDataEvent) = record("added", e)
+      override fun intervalRemoved(e: ListDataEvent) = record("removed", e)
+      override fun contentsChanged(e: ListDataEvent) = record("changed", e)
+
+      private fun record(type: String, e: ListDataEvent) {
+        events.add("$type ${e.index0}-${e.index1}")
+      }
+    })
+  }
+
+  @Test
+  fun `items of accounts follow each other`() {
+    model.addRepositories(first, USER, repos(1, 2))
+    model.addRepositories(second, USER, repos(3, 4, 5))
+
+    assertEquals(5, model.size)
+    assertEquals(listOf(1L, 2L, 3L, 4L, 5L), repoIds())
+    assertEquals(listOf(first, first, second, second, second), (0 until model.size).map { model.getItemAt(it).first })
+    assertEquals(listOf("added 0-1", "added 2-4"), events)
+  }
+
+  @Test
+  fun `repositories are appended to their account`() {
+    model.addRepositories(first, USER, repos(1))
+    model.addRepositories(second, USER, repos(3))
+    events.clear()
+
+    model.addRepositories(first, USER, repos(1, 2))
+
+    assertEquals(listOf(1L, 2L, 3L), repoIds())
+    assertEquals(listOf("added 1-1"), events)
+  }
+
+  @Test
+  fun `error goes first and shifts the following accounts`() {
+    model.addRepositories(first, USER, repos(1))
+    model.addRepositories(second, USER, repos(2))
+    events.clear()
+
+    model.setError(first, RuntimeException())
+    model.setError(first, RuntimeException())
+
+    assertEquals(3, model.size)
+    assertTrue(model.getElementAt(0) is GERepositoryListItem.Error)
+    assertEquals(listOf(1L, 2L), repoIds())
+    assertEquals(2, model.indexOf(second, model.getElementAt(2)))
+    assertEquals(listOf("added 0-0", "changed 0-0"), events)
+  }
+
+  @Test
+  fun `removed repositories are reported one by one`() {
+    model.addRepositories(first, USER, repos(1, 2, 3, 4))
+    model.addRepositories(second, USER, repos(5))
+    events.clear()
+
+    model.removeRepositories(first, repos(2, 4))
+
+    assertEquals(listOf(1L, 3L, 5L), repoIds())
+    assertEquals(listOf("removed 3-3", "removed 1-1"), events)
+    assertEquals(2, model.indexOf(second, model.getElementAt(2)))
+  }
+
+  @Test
+  fun `changed repositories are replaced in place`() {
+    model.setError(first, RuntimeException())
+    model.addRepositories(first, USER, repos(1, 2, 3))
+    events.clear()
+
+    model.addRepositories(first, USER, listOf(repo(1), repo(3, "renamed3"), repo(4)))
+
+    assertEquals(listOf(1L, 2L, 3L, 4L), repoIds())
+    assertEquals("user/renamed3", (model.getElementAt(3) as GERepositoryListItem.Repo).repo.fullName)
+    assertEquals(listOf("changed 3-3", "added 4-4"), events)
+    assertEquals(listOf("user/renamed3"), model.searchIndex.search("renamed").map { it.repo.fullName })
+    assertEquals(listOf("user/repo1", "user/repo2", "user/repo4"), model.searchIndex.search("repo").map { it.repo.fullName }.sorted())
+  }
+
+  @Test
+  fun `unchanged repositories do not fire events`() {
+    model.addRepositories(first, USER, repos(1, 2))
+    events.clear()
+
+    model.addRepositories(first, USER, repos(2, 1))
+
+    assertEquals(emptyList<String>(), events)
+  }
+
+  @Test
+  fun `cleared account is removed from the middle`() {
+    model.addRepositories(first, USER, repos(1, 2))
+    model.addRepositories(second, USER, repos(3))
+    events.clear()
+
+    model.clear(first)
+
+    assertEquals(listOf(3L), repoIds())
+    assertEquals(listOf("removed 0-1"), events)
+    assertEquals(0, model.indexOf(second, model.getElementAt(0)))
+  }
+
+  @Test
+  fun `empty accounts do not take positions`() {
+    model.addRepositories(first, USER, emptyList())
+    model.addRepositories(second, USER, repos(1))
+    model.addRepositories(GiteeAccount("third"), USER, emptyList())
+
+    assertEquals(1, model.size)
+    assertEquals(second, model.getItemAt(0).first)
+    assertEquals(listOf("added 0-0"), events)
+  }
+
+  @Test
+  fun `index of unknown item is not found`() {
+    model.addRepositories(first, USER, repos(1))
+
+    assertEquals(-1, model.indexOf(second, GERepositoryListItem.Repo(second, USER, repo(1))))
+    assertEquals(-1, model.indexOf(first, GERepositoryListItem.Repo(first, USER, repo(2))))
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun `index after the end is rejected`() {
+    model.addRepositories(first, USER, repos(1))
+    model.getElementAt(1)
+  }
+
+  private fun repoIds() = (0 until model.size).mapNotNull {
+    (model.getElementAt(it) as? GERepositoryListItem.Repo)?.repo?.fullName?.let { name -> DIGITS.find(name)!!.value.toLong() }
+  }
+
+  companion object {
+    private val DIGITS = Regex("\\d+")
+    private val USER = GiteeApiContentHelper.fromJson<GiteeAuthenticatedUser>("""{"id": 1, "login": "user"}""")
+
+    private fun repos(vararg ids: Int) = ids.map { repo(it) }
+
+    private fun repo(id: Int, name: String = "repo$id") = GiteeApiContentHelper.fromJson<GiteeRepo>(
+      """{"id": $id, "name": "$name", "path": "$name", "full_name": "user/$name", "human_name": "user/$name", "private": false}""")
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.data.GiteeAuthenticatedUser
+import com.gitee.api.data.GiteeRepo
+import com.gitee.authentication.accounts.GiteeAccount
+import com.gitee.util.GiteeEncryptedFiles
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import javax.crypto.KeyGenerator
+
+class GECloneDialogRepositoryListSnapshotsTest {
+
+  @get:Rule
+  val tempDir = TemporaryFolder()
+
+  private val encryptedFiles = GiteeEncryptedFiles { KeyGenerator.getInstance("AES").apply { init(256) }.generateKey() }
+  private val snapshots by lazy { GECloneDialogRepositoryListSnapshots(tempDir.root.toPath(), encryptedFiles) }
+  private val account = GiteeAccount("user")
+
+  @Test
+  fun `snapshot is restored`() {
+    snapshots.save(account, GECloneDialogRepositoryListSnapshots.Snapshot(USER, listOf(repo("private-repository"))))
+
+    val snapshot = snapshots.load(account)
+    assertNotNull(snapshot)
+    assertEquals("user", snapshot!!.details.login)
+    assertEquals(listOf("user/private-repository"), snapshot.repos.map { it.fullName })
+  }
+
+  @Test
+  fun `snapshot is not stored in plain text`() {
+    snapshots.save(account, GECloneDialogRepositoryListSnapshots.Snapshot(USER, listOf(repo("private-repository"))))
+
+    val bytes = Files.readAllBytes(tempDir.root.toPath().resolve(account.id))
+    assertFalse(bytes.decodeToString().contains("private-repository"))
+  }
+
+  @Test
+  fun `nothing is stored without encryption`() {
+    val snapshots = GECloneDialogRepositoryListSnapshots(tempDir.root.toPath(), GiteeEncryptedFiles { null })
+    snapshots.save(account, GECloneDialogRepositoryListSnapshots.Snapshot(USER, listOf(repo("repo"))))
+
+    assertNull(snapshots.load(account))
+    assertEquals(0, tempDir.root.listFiles()!!.size)
+  }
+
+  @Test
+  fun `snapshots of removed accounts are deleted`() {
+    val removed = GiteeAccount("removed")
+    snapshots.save(account, GECloneDialogRepositoryListSnapshots.Snapshot(USER, listOf(repo("repo"))))
+    snapshots.save(removed, GECloneDialogRepositoryListSnapshots.Snapshot(USER, listOf(repo("repo"))))
+
+    snapshots.retainAccounts(listOf(account.id))
+
+    assertNotNull(snapshots.load(account))
+    assertNull(snapshots.load(removed))
+    assertFalse(Files.exists(tempDir.root.toPath().resolve(removed.id)))
+  }
+
+  companion object {
+    private val USER = GiteeApiContentHelper.fromJson<GiteeAuthenticatedUser>("""{"id": 1, "login": "user"}""")
+
+    private fun repo(name: String) = GiteeApiContentHelper.fromJson<GiteeRepo>(
+      """{"id": 1, "name": "$name", "path": "$name", "full_name": "user/$name", "private": true}""")
+  }
+}
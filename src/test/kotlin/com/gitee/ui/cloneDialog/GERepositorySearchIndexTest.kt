@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.ui.cloneDialog
+
+import com.gitee.api.GiteeApiContentHelper
+import com.gitee.api.data.GiteeAuthenticatedUser
+import com.gitee.api.data.GiteeRepo
+import com.gitee.authentication.accounts.GiteeAccount
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class GERepositorySearchIndexTest {
+
+  private val index = GERepositorySearchIndex()
+
+  @Test
+  fun `every word must be found`() {
+    index.add(item(1, "intellij-gitee", "Gitee plugin for IntelliJ"))
+    index.add(item(2, "gitee-cli", "Command line client"))
+    index.add(item(3, "intellij-community", "IDE"))
+
+    assertEquals(listOf(1), ids(index.search("gitee intellij")))
+    assertEquals(listOf(2), ids(index.search("GITEE  client")))
+    assertEquals(emptyList<Int>(), ids(index.search("gitee community")))
+  }
+
+  @Test
+  fun `name prefix ranks above description`() {
+    index.add(item(1, "notes", "parser of markdown"))
+    index.add(item(2, "parser", "notes"))
+    index.add(item(3, "json-parser", "library"))
+
+    assertEquals(listOf(2, 3, 1), ids(index.search("parser")))
+  }
+
+  @Test
+  fun `short words are checked against every repository`() {
+    index.add(item(1, "ab-tools", ""))
+    index.add(item(2, "tools", ""))
+
+    assertEquals(listOf(1), ids(index.search("ab")))
+    assertEquals(listOf(1, 2), ids(index.search("")))
+  }
+
+  @Test
+  fun `unknown trigram finds nothing`() {
+    index.add(item(1, "gitee", ""))
+
+    assertEquals(emptyList<Int>(), ids(index.search("xyz")))
+  }
+
+  @Test
+  fun `removed repositories are not found`() {
+    index.add(item(1, "gitee-one", ""))
+    index.add(item(2, "gitee-two", ""))
+
+    index.remove(item(1, "gitee-one", ""))
+
+    assertEquals(listOf(2), ids(index.search("gitee")))
+  }
+
+  @Test
+  fun `compaction keeps the remaining repositories`() {
+    val items = (1..3000).map { item(it, "repo-$it", "") }
+    items.forEach(index::add)
+    items.filter { !it.repo.fullName.endsWith("0") }.forEach(index::remove)
+
+    val found = index.search("repo")
+    assertEquals(300, found.size)
+    assertEquals(listOf(2990), ids(index.search("repo-2990")))
+  }
+
+  @Test
+  fun `repositories are added once`() {
+    index.add(item(1, "gitee", ""))
+    index.add(item(1, "gitee", ""))
+
+    assertEquals(listOf(1), ids(index.search("gitee")))
+  }
+
+  private fun ids(items: List<GERepositoryListItem.Repo>) = items.map { it.repo.fullName.substringAfter('#').toInt() }
+
+  companion object {
+    private val ACCOUNT = GiteeAccount("account")
+    private val USER = GiteeApiContentHelper.fromJson<GiteeAuthenticatedUser>("""{"id": 1, "login": "user"}""")
+
+    private fun item(id: Int, name: String, description: String) = GERepositoryListItem.Repo(ACCOUNT, USER,
+      GiteeApiContentHelper.fromJson<GiteeRepo>("""{"id": $id, "name": "$name", "path": "$name", "full_name": "user/$name#$id",
+        |"human_name": "user/$name", "description": "$description", "private": false}""".trimMargin()))
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2016-2023 码云 - Gitee
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.gitee.util
+
+import com.gitee.exceptions.GiteeAuthenticationException
+import com.gitee.exceptions.GiteeJsonException
+import com.gitee.exceptions.GiteeRateLimitExceededException
+import com.gitee.exceptions.GiteeStatusCodeException
+import com.gitee.util.GEEnterpriseServerMetadataLoader.Companion.getNegativeStatusCode
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.IOException
+import java.net.SocketTimeoutException
+import java.util.concurrent.TimeoutException
+
+class GEEnterpriseServerMetadataLoaderTest {
+
+  @Test
+  fun `error statuses are negative`() {
+    assertEquals(404, getNegativeStatusCode(GiteeAuthenticationException("Not found", 404)))
+    assertEquals(401, getNegativeStatusCode(GiteeAuthenticationException("Unauthorized", 401)))
+    assertEquals(403, getNegativeStatusCode(GiteeAuthenticationException("Forbidden", 403)))
+    assertEquals(500, getNegativeStatusCode(GiteeStatusCodeException("Internal error", 500)))
+  }
+
+  @Test
+  fun `non-metadata response is negative`() {
+    assertEquals(0, getNegativeStatusCode(GiteeJsonException("Unexpected content")))
+  }
+
+  @Test
+  fun `connection failures are transient`() {
+    assertNull(getNegativeStatusCode(IOException("Connection refused")))
+    assertNull(getNegativeStatusCode(SocketTimeoutException()))
+    assertNull(getNegativeStatusCode(TimeoutException()))
+    assertNull(getNegativeStatusCode(GiteeRateLimitExceededException("API rate limit exceeded")))
+    assertNull(getNegativeStatusCode(null))
+  }
+}